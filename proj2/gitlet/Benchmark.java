@@ -0,0 +1,451 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Measures gitlet, and prints the results as JSON so that runs of different
+ * versions can be compared.
+ *
+ * The micro benchmarks time hashing, encoding and decoding commits and trees,
+ * and getSplitPoint, in this JVM: each is warmed up, then run for a number of
+ * fixed length iterations, and reported as the mean and standard deviation of
+ * the nanoseconds per operation over the iterations.
+ *
+ * The command benchmarks generate a repository of FILES files in nested
+ * directories, with sizes from a few hundred bytes to a megabyte, and a
+ * history of COMMITS commits in which a feature branch is forked off every
+ * BRANCH_EVERY commits, grows alongside master and is merged back. Each
+ * command is then timed RUNS times as its own gitlet process, as a user would
+ * run it, and reported by its median, minimum and maximum wall time. push and
+ * fetch go to a repository on the same disk.
+ *
+ * Usage: java gitlet.Benchmark [--files FILES] [--commits COMMITS]
+ *            [--branch-every BRANCH_EVERY] [--changes CHANGES] [--runs RUNS]
+ *            [--seed SEED] [--micro-only | --commands-only] [--label LABEL]
+ *            [--out FILE]
+ * Progress is printed to stderr and the results to stdout or FILE. LABEL, such
+ * as the version being measured, is copied into the results.
+ *
+ * @author Kheyanshu Garg
+ */
+public class Benchmark {
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+    private static final long ITERATION_NANOS = 500_000_000L;
+    private static final int ITERATIONS = 5;
+
+    private int files = 1000;
+    private int commits = 100;
+    private int branchEvery = 10;
+    /** Files changed by each generated commit */
+    private int changes = 5;
+    private int runs = 5;
+    private long seed = 1;
+    private boolean micro = true;
+    private boolean commands = true;
+    private File out;
+    private String label = "";
+
+    private Random random;
+    private File root;
+    private File repo;
+    private final List<String> paths = new ArrayList<>();
+    private int branches;
+    private int commitCount;
+
+    /** Results in the order they are printed, by name */
+    private final Map<String, String> microResults = new LinkedHashMap<>();
+    private final Map<String, String> commandResults = new LinkedHashMap<>();
+
+    /** Keeps the results of the micro benchmarks alive */
+    private static volatile Object sink;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Benchmark b = new Benchmark();
+        b.parse(args);
+        b.run();
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; ++i) {
+            switch (args[i]) {
+                case "--files":
+                    files = Integer.parseInt(args[++i]);
+                    break;
+                case "--commits":
+                    commits = Integer.parseInt(args[++i]);
+                    break;
+                case "--branch-every":
+                    branchEvery = Math.max(2, Integer.parseInt(args[++i]));
+                    break;
+                case "--changes":
+                    changes = Integer.parseInt(args[++i]);
+                    break;
+                case "--runs":
+                    runs = Integer.parseInt(args[++i]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                case "--micro-only":
+                    commands = false;
+                    break;
+                case "--commands-only":
+                    micro = false;
+                    break;
+                case "--label":
+                    label = args[++i];
+                    break;
+                case "--out":
+                    out = new File(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+    }
+
+    private void run() throws IOException, InterruptedException {
+        random = new Random(seed);
+        if (micro) {
+            microBenchmarks();
+        }
+        if (commands) {
+            root = Files.createTempDirectory("gitlet-bench").toFile();
+            try {
+                commandBenchmarks();
+            } finally {
+                delete(root);
+            }
+        }
+
+        byte[] json = json().getBytes(StandardCharsets.UTF_8);
+        if (out == null) {
+            System.out.write(json);
+            System.out.flush();
+        } else {
+            Files.write(out.toPath(), json);
+        }
+    }
+
+    /* MICRO BENCHMARKS */
+
+    private interface Op {
+        Object run(int i);
+    }
+
+    /** Times OP and records its ns/op under NAME */
+    private void measure(String name, Op op) {
+        System.err.println("micro: " + name);
+        int i = 0;
+        for (long end = System.nanoTime() + WARMUP_NANOS; System.nanoTime() < end; ++i) {
+            sink = op.run(i);
+        }
+
+        double[] nanosPerOp = new double[ITERATIONS];
+        for (int k = 0; k < ITERATIONS; ++k) {
+            long start = System.nanoTime(), now;
+            int ops = 0;
+            do {
+                sink = op.run(i++);
+                ++ops;
+                now = System.nanoTime();
+            } while (now - start < ITERATION_NANOS);
+            nanosPerOp[k] = (double) (now - start) / ops;
+        }
+
+        double mean = Arrays.stream(nanosPerOp).average().orElse(0);
+        double variance = Arrays.stream(nanosPerOp).map(x -> (x - mean) * (x - mean)).sum()
+                / Math.max(1, ITERATIONS - 1);
+        microResults.put(name, String.format(Locale.ROOT,
+                "{\"unit\": \"ns/op\", \"mean\": %.1f, \"stdev\": %.1f, \"iterations\": %d}",
+                mean, Math.sqrt(variance), ITERATIONS));
+    }
+
+    private void microBenchmarks() {
+        for (int size : new int[] {64, 4096, 1 << 20}) {
+            byte[] contents = new byte[size];
+            random.nextBytes(contents);
+            measure("sha1." + size, i -> Utils.sha1(contents));
+        }
+
+        HashMap<String, String> entries = new HashMap<>();
+        for (int i = 0; i < 1000; ++i) {
+            entries.put("file" + i + ".txt", Utils.sha1("contents", Integer.toString(i)));
+        }
+        byte[] tree = BinaryFormat.encodeTree(entries);
+        measure("tree.encode.1000", i -> BinaryFormat.encodeTree(entries));
+        measure("tree.decode.1000", i -> BinaryFormat.decodeTree(tree));
+
+        Commit c = new Commit(new Date(), Utils.sha1("parent"), null, "a commit message",
+                Utils.sha1("tree"));
+        byte[] commit = BinaryFormat.encodeCommit(c);
+        measure("commit.encode", i -> BinaryFormat.encodeCommit(c));
+        measure("commit.decode", i -> BinaryFormat.decodeCommit(commit));
+
+        for (int n : new int[] {10000, 100000}) {
+            CommitGraph g = SplitPointSpeedTest.branchy(n, new Random(seed));
+            int window = Math.min(n, 1000);
+            String[][] pairs = new String[256][];
+            for (int k = 0; k < pairs.length; ++k) {
+                pairs[k] = new String[] {g.id(n - 1 - random.nextInt(window)),
+                    g.id(n - 1 - random.nextInt(window))};
+            }
+            measure("splitPoint." + n, i -> {
+                String[] p = pairs[i & (pairs.length - 1)];
+                return Branch.getSplitPoint(g, p[0], p[1]);
+            });
+        }
+    }
+
+    /* COMMAND BENCHMARKS */
+
+    private void commandBenchmarks() throws IOException, InterruptedException {
+        repo = new File(root, "repo");
+        System.err.printf("generating %d files and %d commits%n", files, commits);
+        long start = System.nanoTime();
+        generate();
+        System.err.printf("generated in %.1f s%n", (System.nanoTime() - start) / 1e9);
+
+        time("status", () -> { }, () -> gitlet(repo, "status"));
+        time("add", () -> change(files - 1), () -> gitlet(repo, "add", paths.get(files - 1)));
+        time("commit", () -> {
+            change(files - 1);
+            gitlet(repo, "add", paths.get(files - 1));
+        }, () -> gitlet(repo, "commit", "benchmark commit"));
+        if (branches > 0) {
+            time("checkout", () -> { }, () -> {
+                gitlet(repo, "checkout", "feature0");
+                gitlet(repo, "checkout", "master");
+            });
+        }
+        time("merge", () -> {
+            String branch = "feature" + branches;
+            gitlet(repo, "branch", branch);
+            gitlet(repo, "checkout", branch);
+            commit(1);
+            gitlet(repo, "checkout", "master");
+            commit(0);
+        }, () -> gitlet(repo, "merge", "feature" + branches++));
+
+        File remote = new File(root, "remote");
+        File peer = new File(root, "peer");
+        remote.mkdir();
+        peer.mkdir();
+        gitlet(remote, "init");
+        gitlet(peer, "init");
+        gitlet(repo, "add-remote", "origin", "../remote/.gitlet");
+        gitlet(peer, "add-remote", "origin", "../repo/.gitlet");
+
+        // The first push and fetch send the whole history, later ones one commit
+        timeOnce("push.initial", () -> gitlet(repo, "push", "origin", "master"));
+        timeOnce("fetch.initial", () -> gitlet(peer, "fetch", "origin", "master"));
+        time("push", () -> commit(0), () -> gitlet(repo, "push", "origin", "master"));
+        time("fetch", () -> commit(0), () -> gitlet(peer, "fetch", "origin", "master"));
+    }
+
+    private interface Step {
+        void run() throws IOException, InterruptedException;
+    }
+
+    /** Runs SETUP and then times COMMAND, RUNS times, and records the times under NAME */
+    private void time(String name, Step setup, Step command)
+            throws IOException, InterruptedException {
+        System.err.println("command: " + name);
+        double[] millis = new double[runs];
+        for (int k = 0; k < runs; ++k) {
+            setup.run();
+            long start = System.nanoTime();
+            command.run();
+            millis[k] = (System.nanoTime() - start) / 1e6;
+        }
+        Arrays.sort(millis);
+        double median = (millis[(runs - 1) / 2] + millis[runs / 2]) / 2;
+        commandResults.put(name, String.format(Locale.ROOT,
+                "{\"unit\": \"ms\", \"median\": %.1f, \"min\": %.1f, \"max\": %.1f, \"runs\": %d}",
+                median, millis[0], millis[runs - 1], runs));
+    }
+
+    private void timeOnce(String name, Step command) throws IOException, InterruptedException {
+        int saved = runs;
+        runs = 1;
+        time(name, () -> { }, command);
+        runs = saved;
+    }
+
+    /**
+     * Generates the repository. Master changes the files at even positions and
+     * feature branches those at odd positions, so that merges never conflict.
+     */
+    private void generate() throws IOException, InterruptedException {
+        repo.mkdir();
+        gitlet(repo, "init");
+
+        for (int i = 0; i < files; ++i) {
+            String path = "src/d" + i % 16 + "/d" + i % 7 + "/file" + i + ".txt";
+            paths.add(path);
+            File f = new File(repo, path);
+            f.getParentFile().mkdirs();
+            Files.write(f.toPath(), text(size()));
+        }
+        gitlet(repo, "add", "src");
+        gitlet(repo, "commit", "generated files");
+        commitCount = 1;
+
+        while (commitCount < commits) {
+            if (commitCount % branchEvery == 0) {
+                String branch = "feature" + branches++;
+                gitlet(repo, "branch", branch);
+                gitlet(repo, "checkout", branch);
+                for (int k = 0; k < branchEvery / 2; ++k) {
+                    commit(1);
+                }
+                gitlet(repo, "checkout", "master");
+                commit(0);
+                gitlet(repo, "merge", branch);
+                ++commitCount;
+            } else {
+                commit(0);
+            }
+        }
+    }
+
+    /** Commits changes to CHANGES files at positions of the parity SIDE */
+    private void commit(int side) throws IOException, InterruptedException {
+        StringBuilder script = new StringBuilder();
+        for (int k = 0; k < changes; ++k) {
+            int i = side + 2 * random.nextInt(files / 2);
+            change(i);
+            script.append("add ").append(paths.get(i)).append('\n');
+        }
+        script.append("commit \"commit ").append(++commitCount).append("\"\n");
+        run(repo, script.toString(), "batch");
+    }
+
+    /** Rewrites a random line of the file at position I, or appends one */
+    private void change(int i) throws IOException {
+        File f = new File(repo, paths.get(i));
+        List<String> lines = new ArrayList<>(Files.readAllLines(f.toPath()));
+        String line = "changed " + random.nextLong();
+        if (lines.isEmpty() || random.nextInt(4) == 0) {
+            lines.add(line);
+        } else {
+            lines.set(random.nextInt(lines.size()), line);
+        }
+        Files.write(f.toPath(), lines);
+    }
+
+    /** Returns a file size: mostly small files, some larger and a few chunked ones */
+    private int size() {
+        double roll = random.nextDouble();
+        if (roll < 0.70) {
+            return 100 + random.nextInt(2000);
+        } else if (roll < 0.95) {
+            return 2048 + random.nextInt(62 * 1024);
+        }
+        return 64 * 1024 + random.nextInt(960 * 1024);
+    }
+
+    private byte[] text(int size) {
+        StringBuilder sb = new StringBuilder(size + 80);
+        while (sb.length() < size) {
+            sb.append("line ").append(random.nextLong()).append(' ')
+                .append(Long.toHexString(random.nextLong())).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Runs gitlet with ARGS in DIR and returns what it printed. Fails on a
+     * command which is expected to print nothing and printed an error.
+     */
+    private static String gitlet(File dir, String... args)
+            throws IOException, InterruptedException {
+        return run(dir, null, args);
+    }
+
+    /** Runs gitlet with ARGS in DIR, with INPUT, if not null, as its standard input */
+    private static String run(File dir, String input, String... args)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(List.of(
+                ProcessHandle.current().info().command().orElse("java"),
+                "-cp", System.getProperty("java.class.path"), "gitlet.Main"));
+        command.addAll(Arrays.asList(args));
+
+        Process p = new ProcessBuilder(command).directory(dir)
+                .redirectErrorStream(true).start();
+        try (OutputStream stdin = p.getOutputStream()) {
+            if (input != null) {
+                stdin.write(input.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        String output = readAll(p.getInputStream());
+        p.waitFor();
+
+        if (!args[0].equals("status") && !output.isEmpty()) {
+            throw new IllegalStateException(String.join(" ", args) + " printed: " + output);
+        }
+        return output;
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        in.transferTo(buf);
+        return buf.toString(StandardCharsets.UTF_8);
+    }
+
+    private static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File i : children) {
+                delete(i);
+            }
+        }
+        f.delete();
+    }
+
+    /* OUTPUT */
+
+    private String json() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"label\": \"").append(label.replace("\\", "\\\\").replace("\"", "\\\""))
+            .append("\",\n");
+        sb.append("  \"java\": \"").append(System.getProperty("java.version")).append("\",\n");
+        sb.append("  \"date\": \"").append(new Date().toInstant()).append("\",\n");
+        sb.append(String.format(Locale.ROOT, "  \"params\": {\"files\": %d, \"commits\": %d, "
+                + "\"branchEvery\": %d, \"changes\": %d, \"runs\": %d, \"seed\": %d},%n",
+                files, commits, branchEvery, changes, runs, seed));
+        sb.append("  \"micro\": ").append(object(microResults)).append(",\n");
+        sb.append("  \"commands\": ").append(object(commandResults)).append("\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private static String object(Map<String, String> results) {
+        if (results.isEmpty()) {
+            return "{}";
+        }
+        StringBuilder sb = new StringBuilder("{\n");
+        int n = 0;
+        for (Map.Entry<String, String> i : results.entrySet()) {
+            sb.append("    \"").append(i.getKey()).append("\": ").append(i.getValue())
+                .append(++n < results.size() ? ",\n" : "\n");
+        }
+        return sb.append("  }").toString();
+    }
+}
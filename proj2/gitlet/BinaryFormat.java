@@ -0,0 +1,295 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/**
+ * Compact binary encoding of the metadata gitlet keeps on disk: commits, the
+ * staging area and refs.
+ *
+ * Every file starts with the two bytes "GL", a type byte and a version byte, so
+ * a reader always knows what it is decoding and old versions can still be read
+ * after the format changes. Numbers are written as varints and strings as their
+ * length followed by UTF-8 bytes. Files written by older gitlets with Java
+ * serialization are still read transparently; "gitlet migrate" rewrites them.
+ *
+ * @author Kheyanshu Garg
+ */
+public class BinaryFormat {
+    private static final byte MAGIC_0 = 'G';
+    private static final byte MAGIC_1 = 'L';
+    /** First byte of every Java serialization stream */
+    private static final byte JAVA_MAGIC = (byte) 0xAC;
+
+    static final byte COMMIT = 1;
+    static final byte STRING_SET = 2;
+    static final byte STRING_MAP = 3;
+    static final byte REF = 4;
+    static final byte STAT_CACHE = 5;
+    static final byte TREE = 6;
+    static final byte STAGE = 7;
+    static final byte STAGE_LOG = 8;
+
+    private static final byte VERSION = 1;
+    /** Commits of version 1 list all their files, version 2 commits point to a tree */
+    private static final byte COMMIT_VERSION = 2;
+
+    /* WRITING */
+
+    /** Accumulates an encoded object */
+    static class Writer {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Writer(byte type, byte version) {
+            out.write(MAGIC_0);
+            out.write(MAGIC_1);
+            out.write(type);
+            out.write(version);
+        }
+
+        Writer varint(long v) {
+            while ((v & ~0x7FL) != 0) {
+                out.write((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            out.write((int) v);
+            return this;
+        }
+
+        Writer string(String s) {
+            if (s == null) {
+                return varint(0);
+            }
+
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            varint(bytes.length + 1);
+            out.write(bytes, 0, bytes.length);
+            return this;
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+
+    /* READING */
+
+    /** Decodes an object written by a Writer */
+    static class Reader {
+        private final ByteBuffer buf;
+        final byte version;
+
+        /**
+         * Starts decoding BYTES as an object of TYPE, refusing versions newer
+         * than NEWEST, which were written by a later gitlet
+         */
+        Reader(byte[] bytes, byte type, byte newest) {
+            buf = ByteBuffer.wrap(bytes);
+            if (bytes.length < 4 || buf.get() != MAGIC_0 || buf.get() != MAGIC_1
+                    || buf.get() != type) {
+                throw error("Corrupted gitlet object.");
+            }
+            version = buf.get();
+            if (version < 1 || version > newest) {
+                throw error("Unsupported gitlet object version.");
+            }
+        }
+
+        long varint() {
+            long result = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buf.get();
+                result |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return result;
+        }
+
+        String string() {
+            int length = (int) varint() - 1;
+            if (length < 0) {
+                return null;
+            }
+
+            String s = new String(buf.array(), buf.position(), length, StandardCharsets.UTF_8);
+            buf.position(buf.position() + length);
+            return s;
+        }
+    }
+
+    /** True if the file was written with Java serialization by an older gitlet */
+    static boolean isLegacy(byte[] bytes) {
+        return bytes.length > 0 && bytes[0] == JAVA_MAGIC;
+    }
+
+    private static <T extends Serializable> T readLegacy(byte[] bytes, Class<T> expected) {
+        try (Trace.Span s = Trace.begin("decode legacy");
+             ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            s.bytes(bytes.length);
+            return expected.cast(in.readObject());
+        } catch (IOException | ClassCastException | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* COMMITS */
+
+    static byte[] encodeCommit(Commit c) {
+        Writer w = new Writer(COMMIT, COMMIT_VERSION);
+        w.varint(c.getTimestamp().getTime());
+        w.string(c.getParent()).string(c.getSecondParent()).string(c.getMsg());
+        w.string(c.getTree());
+        return w.toByteArray();
+    }
+
+    static Commit decodeCommit(byte[] bytes) {
+        try (Trace.Span s = Trace.begin("decode commit")) {
+            s.bytes(bytes.length);
+            Reader r = new Reader(bytes, COMMIT, COMMIT_VERSION);
+            Date d = new Date(r.varint());
+            String parent = r.string(), secondParent = r.string(), msg = r.string();
+            if (r.version >= 2) {
+                return new Commit(d, parent, secondParent, msg, r.string());
+            }
+
+            HashMap<String, String> files = readMap(r);
+            if (secondParent == null) {
+                return new Commit(d, parent, msg, files);
+            }
+            return new Commit(d, parent, secondParent, msg, files);
+        } catch (BufferUnderflowException excp) {
+            throw error("Corrupted gitlet object.");
+        }
+    }
+
+    public static void writeCommit(File f, Commit c) {
+        writeAtomic(f, encodeCommit(c));
+    }
+
+    public static Commit readCommit(File f) {
+        return readCommit(readContents(f));
+    }
+
+    /** True if BYTES hold a commit in the current version of the binary format */
+    public static boolean isCurrentCommit(byte[] bytes) {
+        return bytes.length >= 4 && bytes[0] == MAGIC_0 && bytes[2] == COMMIT
+                && bytes[3] == COMMIT_VERSION;
+    }
+
+    /** Decodes a commit in either the binary format or Java serialization */
+    public static Commit readCommit(byte[] bytes) {
+        if (isLegacy(bytes)) {
+            return readLegacy(bytes, Commit.class);
+        }
+        return decodeCommit(bytes);
+    }
+
+    /* TREES */
+
+    static byte[] encodeTree(Map<String, String> entries) {
+        Writer w = new Writer(TREE, VERSION);
+        writeMap(w, entries);
+        return w.toByteArray();
+    }
+
+    static HashMap<String, String> decodeTree(byte[] bytes) {
+        try (Trace.Span s = Trace.begin("decode tree")) {
+            s.bytes(bytes.length);
+            return readMap(new Reader(bytes, TREE, VERSION));
+        } catch (BufferUnderflowException excp) {
+            throw error("Corrupted gitlet object.");
+        }
+    }
+
+    /* STAGING AREA */
+
+    private static void writeMap(Writer w, Map<String, String> map) {
+        // Sorted so that equal maps always encode to equal bytes
+        String[] keys = map.keySet().toArray(new String[0]);
+        Arrays.sort(keys);
+
+        w.varint(keys.length);
+        for (String key : keys) {
+            w.string(key).string(map.get(key));
+        }
+    }
+
+    private static HashMap<String, String> readMap(Reader r) {
+        int size = (int) r.varint();
+        HashMap<String, String> map = new HashMap<>(Math.max(16, size * 4 / 3 + 1));
+        for (int i = 0; i < size; ++i) {
+            map.put(r.string(), r.string());
+        }
+        return map;
+    }
+
+    public static void writeStringMap(File f, Map<String, String> map) {
+        Writer w = new Writer(STRING_MAP, VERSION);
+        writeMap(w, map);
+        writeAtomic(f, w.toByteArray());
+    }
+
+    @SuppressWarnings("unchecked")
+    public static HashMap<String, String> readStringMap(File f) {
+        byte[] bytes = readContents(f);
+        if (isLegacy(bytes)) {
+            return readLegacy(bytes, HashMap.class);
+        }
+        return readMap(new Reader(bytes, STRING_MAP, VERSION));
+    }
+
+    public static void writeStringSet(File f, TreeSet<String> set) {
+        Writer w = new Writer(STRING_SET, VERSION);
+        w.varint(set.size());
+        for (String i : set) {
+            w.string(i);
+        }
+        writeAtomic(f, w.toByteArray());
+    }
+
+    @SuppressWarnings("unchecked")
+    public static TreeSet<String> readStringSet(File f) {
+        byte[] bytes = readContents(f);
+        if (isLegacy(bytes)) {
+            return readLegacy(bytes, TreeSet.class);
+        }
+
+        Reader r = new Reader(bytes, STRING_SET, VERSION);
+        TreeSet<String> set = new TreeSet<>();
+        for (long i = r.varint(); i > 0; --i) {
+            set.add(r.string());
+        }
+        return set;
+    }
+
+    /* REFS */
+
+    /** Writes a ref, which is the name of a branch or the sha of a commit */
+    public static void writeRef(File f, String value) {
+        writeAtomic(f, new Writer(REF, VERSION).string(value).toByteArray());
+    }
+
+    public static String readRef(File f) {
+        byte[] bytes = readContents(f);
+        if (isLegacy(bytes)) {
+            return readLegacy(bytes, String.class);
+        }
+        return new Reader(bytes, REF, VERSION).string();
+    }
+}
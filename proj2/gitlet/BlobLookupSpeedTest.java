@@ -0,0 +1,75 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+/** Times looking up blobs in stores of a growing number of small blobs, once
+ *  named by the first 10 characters of their SHA-1 in 16 shards the way gitlet
+ *  used to, and once by their full sha in 256 shards. Half of the lookups are
+ *  for blobs which do not exist, as when add checks whether a file is already
+ *  stored.
+ *  Usage: java gitlet.BlobLookupSpeedTest [LARGEST_NUMBER_OF_BLOBS]
+ *  @author Kheyanshu Garg
+ */
+public class BlobLookupSpeedTest {
+    private static final int LOOKUPS = 20000;
+
+    public static void main(String[] args) throws IOException {
+        int largest = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 17;
+
+        for (int n = 1 << 11; n <= largest; n *= 4) {
+            for (boolean legacy : new boolean[] {true, false}) {
+                File dir = Files.createTempDirectory("gitlet-lookup").toFile();
+                File objects = Utils.join(dir, "objects");
+                BlobStore store = new BlobStore(objects);
+
+                String[] shas = new String[n];
+                for (int i = 0; i < n; ++i) {
+                    byte[] contents = ("blob " + i + "\n").getBytes();
+                    shas[i] = BlobStore.id(contents, "f" + i);
+                    if (legacy) {
+                        shas[i] = shas[i].substring(0, 10);
+                    }
+                    store.write(shas[i], contents);
+                }
+
+                // The first round only warms up the code and the directory caches
+                lookups(store, shas);
+                long start = System.nanoTime();
+                lookups(store, shas);
+                double us = (System.nanoTime() - start) / 1e3 / LOOKUPS;
+
+                System.out.printf("%7d blobs, %-27s %6.1f us/lookup, %6d per shard%n", n,
+                        legacy ? "10 character ids, 16 shards:" : "full ids, 256 shards:",
+                        us, n / (legacy ? 16 : 256));
+                delete(dir);
+            }
+        }
+    }
+
+    private static void lookups(BlobStore store, String[] shas) {
+        Random r = new Random(shas.length);
+        for (int i = 0; i < LOOKUPS; ++i) {
+            String sha = shas[r.nextInt(shas.length)];
+            boolean missing = i % 2 == 1;
+            if (missing) {
+                sha = sha.substring(0, sha.length() - 1) + "x";
+            }
+            if (store.contains(sha) == missing) {
+                throw new AssertionError("wrong lookup of " + sha);
+            }
+        }
+    }
+
+    private static void delete(File f) {
+        File[] files = f.listFiles();
+        if (files != null) {
+            for (File i : files) {
+                delete(i);
+            }
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,580 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Utils.*;
+
+/**
+ * Stores the contents of the files tracked by gitlet.
+ *
+ * The sha of a blob is the full SHA-1 or SHA-256 hash, as set by
+ * core.hashAlgorithm, of its contents followed by its path. Small files are
+ * kept whole in objects/[first two chars]/[sha]. Larger files are cut into
+ * chunks at content-defined boundaries (found with a gear rolling hash), so an
+ * edit only changes the chunks around it. Each chunk is stored once in
+ * objects/chunks/[first two chars]/[chunk sha] and the blob itself becomes a
+ * manifest objects/[first two chars]/[sha].chunks listing its chunks in order.
+ *
+ * Older repositories named blobs by the first 10 characters of the SHA-1 and
+ * kept them in objects/[first char]/. Such blobs are still read from there
+ * until "gitlet migrate" rehashes them.
+ *
+ * When core.compression is set to deflate, whole blobs and chunks are written
+ * deflated with a ".z" suffix. Both forms can be read at any time, and any of
+ * these files may also have been moved into a pack.
+ *
+ * @author Kheyanshu Garg
+ */
+public class BlobStore {
+    /** Files smaller than this are not worth chunking */
+    static final int CHUNK_THRESHOLD = 16 * 1024;
+    static final int MIN_CHUNK = 2 * 1024;
+    static final int MAX_CHUNK = 64 * 1024;
+    /** A boundary is cut when the low 13 bits of the hash are zero, about every 8 KiB */
+    private static final long BOUNDARY_MASK = (1 << 13) - 1;
+    private static final String MANIFEST_SUFFIX = ".chunks";
+    private static final String COMPRESSED_SUFFIX = ".z";
+
+    /** Random values for every byte, fixed so that boundaries never change */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random r = new Random(0x6769746c6574L);
+        for (int i = 0; i < GEAR.length; ++i) {
+            GEAR[i] = r.nextLong();
+        }
+    }
+
+    /** Blobs at least this large are mapped instead of read by contents */
+    static final long MAP_THRESHOLD = 1 << 20;
+
+    /** Contents of the blobs read in this command, by sha */
+    private static final LruCache<String, byte[]> CACHE = new LruCache<>("cache.blobs",
+            32 << 20);
+
+    /** Blob store of the repository in the current working directory */
+    private static BlobStore local;
+
+    private final File objectsDir;
+    private final File chunksDir;
+    private final Packs packs;
+
+    public BlobStore(File objectsDir) {
+        this.objectsDir = objectsDir;
+        this.chunksDir = join(objectsDir, "chunks");
+        this.packs = Packs.of(objectsDir.getParentFile());
+    }
+
+    /** Returns the blob store of the current repository. Threads may share it. */
+    public static synchronized BlobStore local() {
+        if (local == null) {
+            local = new BlobStore(Repository.OBJECTS_DIR);
+        }
+        return local;
+    }
+
+    /** Returns the sha of a blob holding CONTENTS at the path NAME */
+    public static String id(byte[] contents, String name) {
+        return hash(Config.hashAlgorithm(), contents, name);
+    }
+
+    /** Returns the sha of a blob holding the contents of FILE at the path NAME */
+    public static String id(File file, String name) {
+        return hashFile(Config.hashAlgorithm(), file, name);
+    }
+
+    /** True if SHA was made with the hash the repository uses now */
+    public static boolean isCurrent(String sha) {
+        return sha.length() == (Config.hashAlgorithm().equals("SHA-1") ? 40 : 64);
+    }
+
+    /** Returns the directory of the blob SHA, which is shorter for legacy ids */
+    private File shardOf(String sha) {
+        return join(objectsDir, sha.substring(0, sha.length() < UID_LENGTH ? 1 : 2));
+    }
+
+    private File blobFile(String sha) {
+        return join(shardOf(sha), sha);
+    }
+
+    private File manifestFile(String sha) {
+        return join(shardOf(sha), sha + MANIFEST_SUFFIX);
+    }
+
+    private File chunkFile(String chunkSha) {
+        return join(chunksDir, chunkSha.substring(0, 2), chunkSha);
+    }
+
+    public boolean contains(String sha) {
+        return stored(blobFile(sha)) != null || packs.exists(manifestFile(sha));
+    }
+
+    private static File compressed(File f) {
+        return new File(f.getPath() + COMPRESSED_SUFFIX);
+    }
+
+    /** Returns the file holding the data of F, which may be compressed, or null */
+    private File stored(File f) {
+        if (packs.exists(f)) {
+            return f;
+        }
+
+        File z = compressed(f);
+        return packs.exists(z) ? z : null;
+    }
+
+    /** Opens the data of F, inflating it if it was stored compressed */
+    private InputStream openData(File f) throws IOException {
+        File s = stored(f);
+        if (s == null) {
+            throw new IOException(f.getName() + " does not exist");
+        }
+
+        InputStream in = packs.open(s);
+        return s == f ? in : new InflaterInputStream(in);
+    }
+
+    /**
+     * Saves the contents of IN to F, compressing them if the repository asks for
+     * it. They are written to a temporary file which is then renamed, so that F
+     * either does not exist or is complete, as contains and writeChunked take
+     * any existing file to be.
+     */
+    private static void writeData(File f, InputStream in) throws IOException {
+        f.getParentFile().mkdirs();
+        File dest = Config.compress() ? compressed(f) : f;
+        Path tmp = Files.createTempFile(dest.getParentFile().toPath(),
+                "." + dest.getName(), ".tmp");
+        try (Trace.Span s = Trace.begin("copy")) {
+            if (Config.compress()) {
+                try (OutputStream out = new DeflaterOutputStream(Files.newOutputStream(tmp))) {
+                    in.transferTo(out);
+                }
+            } else {
+                s.bytes(Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING));
+            }
+            Files.move(tmp, dest.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Moves the given file into the store as the blob SHA, chunking it if it is
+     * large enough.
+     */
+    @SuppressWarnings("try")
+    public void store(String sha, File source) {
+        if (contains(sha)) {
+            source.delete();
+            return;
+        }
+
+        if (source.length() < CHUNK_THRESHOLD) {
+            File dest = blobFile(sha);
+            dest.getParentFile().mkdir();
+            try {
+                if (Config.compress()) {
+                    try (InputStream in = Files.newInputStream(source.toPath())) {
+                        writeData(dest, in);
+                    }
+                    source.delete();
+                } else {
+                    try (Trace.Span s = Trace.begin("move")) {
+                        Files.move(source.toPath(), dest.toPath(),
+                                StandardCopyOption.REPLACE_EXISTING,
+                                StandardCopyOption.ATOMIC_MOVE);
+                    }
+                }
+            } catch (IOException excp) {
+                throw error("Could not store %s", sha);
+            }
+            return;
+        }
+
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(source.toPath()))) {
+            writeChunked(sha, in);
+        } catch (IOException excp) {
+            throw error("Could not store %s", sha);
+        }
+        source.delete();
+    }
+
+    /** Saves CONTENTS as the blob SHA */
+    public void write(String sha, byte[] contents) {
+        if (contains(sha)) {
+            return;
+        }
+
+        try {
+            if (contents.length < CHUNK_THRESHOLD) {
+                writeData(blobFile(sha), new ByteArrayInputStream(contents));
+            } else {
+                writeChunked(sha, new ByteArrayInputStream(contents));
+            }
+        } catch (IOException excp) {
+            throw error("Could not store %s", sha);
+        }
+    }
+
+    /**
+     * Cuts IN into chunks, saves the chunks which are not stored yet and writes
+     * the manifest of the blob.
+     */
+    private void writeChunked(String sha, InputStream in) throws IOException {
+        StringBuilder manifest = new StringBuilder();
+        byte[] chunk = new byte[MAX_CHUNK];
+
+        int length;
+        while ((length = nextChunk(in, chunk)) > 0) {
+            byte[] bytes = Arrays.copyOf(chunk, length);
+            String chunkSha = sha1(bytes);
+            File f = chunkFile(chunkSha);
+
+            if (stored(f) == null) {
+                writeData(f, new ByteArrayInputStream(bytes));
+            }
+            manifest.append(chunkSha).append(' ').append(length).append('\n');
+        }
+
+        File dest = manifestFile(sha);
+        dest.getParentFile().mkdir();
+        writeAtomic(dest, manifest.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads the next chunk of IN into BUF and returns its length, or 0 at the end
+     * of the input. A chunk ends where the rolling hash of the bytes read so far
+     * hits the boundary mask, but is never shorter than MIN_CHUNK or longer than
+     * MAX_CHUNK.
+     */
+    static int nextChunk(InputStream in, byte[] buf) throws IOException {
+        long hash = 0;
+        int length = 0;
+        int b;
+
+        while (length < MAX_CHUNK && (b = in.read()) != -1) {
+            buf[length++] = (byte) b;
+            hash = (hash << 1) + GEAR[b];
+
+            if (length >= MIN_CHUNK && (hash & BOUNDARY_MASK) == 0) {
+                break;
+            }
+        }
+        return length;
+    }
+
+    /** Returns the chunk ids of a chunked blob in order */
+    private List<String> chunksOf(String sha) {
+        List<String> result = new ArrayList<>();
+        String manifest = new String(packs.read(manifestFile(sha)), StandardCharsets.UTF_8);
+        for (String line : manifest.split("\n")) {
+            if (!line.isEmpty()) {
+                result.add(line.substring(0, line.indexOf(' ')));
+            }
+        }
+        return result;
+    }
+
+    /** Returns the lengths of the chunks of a chunked blob in order */
+    private List<Long> chunkSizesOf(String sha) {
+        List<Long> result = new ArrayList<>();
+        String manifest = new String(packs.read(manifestFile(sha)), StandardCharsets.UTF_8);
+        for (String line : manifest.split("\n")) {
+            if (!line.isEmpty()) {
+                result.add(Long.parseLong(line.substring(line.indexOf(' ') + 1)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the stored files which make up the blob SHA: the file holding its
+     * data, or its chunks followed by its manifest
+     */
+    public List<File> filesOf(String sha) {
+        List<File> result = new ArrayList<>();
+        if (packs.exists(manifestFile(sha))) {
+            for (String chunkSha : chunksOf(sha)) {
+                File f = stored(chunkFile(chunkSha));
+                if (f == null) {
+                    throw error("Missing chunk %s", chunkSha);
+                }
+                result.add(f);
+            }
+            result.add(manifestFile(sha));
+        } else {
+            File f = stored(blobFile(sha));
+            if (f == null) {
+                throw error("Missing blob %s", sha);
+            }
+            result.add(f);
+        }
+        return result;
+    }
+
+    /** Returns the full contents of the blob SHA */
+    public byte[] read(String sha) {
+        ByteBuffer buf = contents(sha);
+        byte[] bytes = new byte[buf.remaining()];
+        buf.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Returns the contents of the blob SHA as a read-only buffer. Blobs of at
+     * least MAP_THRESHOLD bytes are not read onto the heap: one stored whole
+     * is mapped, and the chunks of a chunked one are mapped and gathered into
+     * a direct buffer. Smaller blobs are kept in a cache for the rest of the
+     * command.
+     */
+    public ByteBuffer contents(String sha) {
+        byte[] cached = CACHE.get(sha);
+        if (cached != null) {
+            return ByteBuffer.wrap(cached).asReadOnlyBuffer();
+        }
+
+        File manifest = manifestFile(sha);
+        if (packs.exists(manifest)) {
+            long size = 0;
+            for (long i : chunkSizesOf(sha)) {
+                size += i;
+            }
+            if (size >= MAP_THRESHOLD) {
+                Metrics.count("blobs.mapped");
+                return gather(sha, size);
+            }
+        } else if (packs.size(blobFile(sha)) >= MAP_THRESHOLD) {
+            Metrics.count("blobs.mapped");
+            return packs.map(blobFile(sha));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeTo(sha, out);
+        byte[] bytes = out.toByteArray();
+        CACHE.put(sha, bytes, bytes.length);
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the chunked blob SHA of SIZE bytes in a direct buffer, copying
+     * the chunks stored as they are from their mappings and inflating the
+     * compressed ones
+     */
+    private ByteBuffer gather(String sha, long size) {
+        if (size > Integer.MAX_VALUE) {
+            throw error("%s is too large to read", sha);
+        }
+
+        ByteBuffer result = ByteBuffer.allocateDirect((int) size);
+        byte[] buf = new byte[MAX_CHUNK];
+        try {
+            for (String chunkSha : chunksOf(sha)) {
+                File f = chunkFile(chunkSha);
+                if (stored(f) == f) {
+                    result.put(packs.map(f));
+                    continue;
+                }
+                try (InputStream in = openData(f)) {
+                    int n;
+                    while ((n = in.read(buf)) > 0) {
+                        result.put(buf, 0, n);
+                    }
+                }
+            }
+        } catch (IOException | BufferOverflowException excp) {
+            throw error("Could not read %s", sha);
+        }
+        result.flip();
+        return result.asReadOnlyBuffer();
+    }
+
+    /** Writes the contents of the blob SHA to DEST, replacing it if it exists */
+    public void copyTo(String sha, Path dest) {
+        try (Trace.Span s = Trace.begin("copy")) {
+            byte[] cached = CACHE.get(sha);
+            if (cached != null) {
+                Files.write(dest, cached);
+                s.bytes(cached.length);
+                return;
+            }
+
+            if (blobFile(sha).exists()) {
+                Files.copy(blobFile(sha).toPath(), dest, StandardCopyOption.REPLACE_EXISTING);
+                s.bytes(blobFile(sha).length());
+                return;
+            }
+
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(dest))) {
+                writeTo(sha, out);
+            }
+        } catch (IOException excp) {
+            throw error("Could not write %s", dest.getFileName());
+        }
+    }
+
+    private void writeTo(String sha, OutputStream out) {
+        try {
+            if (!packs.exists(manifestFile(sha))) {
+                try (InputStream in = openData(blobFile(sha))) {
+                    in.transferTo(out);
+                }
+                return;
+            }
+
+            for (String chunkSha : chunksOf(sha)) {
+                try (InputStream in = openData(chunkFile(chunkSha))) {
+                    in.transferTo(out);
+                }
+            }
+        } catch (IOException excp) {
+            throw error("Could not read %s", sha);
+        }
+    }
+
+    /**
+     * Stores the blob SHA, which was the contents of the file NAME, again under
+     * its sha with the current hash and returns that sha. The data or chunks
+     * are copied as they are stored, and the old blob is left to gc.
+     */
+    public String rehash(String sha, String name) {
+        MessageDigest md = digest(Config.hashAlgorithm());
+        writeTo(sha, new DigestOutputStream(OutputStream.nullOutputStream(), md));
+        md.update(name.getBytes(StandardCharsets.UTF_8));
+        String newSha = hex(md.digest());
+        if (contains(newSha)) {
+            return newSha;
+        }
+
+        File from = packs.exists(manifestFile(sha)) ? manifestFile(sha) : stored(blobFile(sha));
+        File to = from.getName().endsWith(MANIFEST_SUFFIX) ? manifestFile(newSha)
+                : from.getName().endsWith(COMPRESSED_SUFFIX) ? compressed(blobFile(newSha))
+                : blobFile(newSha);
+        to.getParentFile().mkdirs();
+        try (Trace.Span s = Trace.begin("copy"); InputStream in = packs.open(from)) {
+            s.bytes(Files.copy(in, to.toPath(), StandardCopyOption.REPLACE_EXISTING));
+        } catch (IOException excp) {
+            throw error("Could not store %s", newSha);
+        }
+        return newSha;
+    }
+
+    /**
+     * Prints how much space chunking saved, comparing the size of every chunked
+     * blob with the size of the distinct chunks actually stored.
+     */
+    public void printReport() {
+        long blobs = 0, logicalBytes = 0;
+        HashSet<String> chunks = new HashSet<>();
+        long chunkBytes = 0;
+
+        for (File manifest : manifests()) {
+            ++blobs;
+            String contents = new String(packs.read(manifest), StandardCharsets.UTF_8);
+            for (String line : contents.split("\n")) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+
+                int space = line.indexOf(' ');
+                logicalBytes += Long.parseLong(line.substring(space + 1));
+                if (chunks.add(line.substring(0, space))) {
+                    chunkBytes += packs.size(stored(chunkFile(line.substring(0, space))));
+                }
+            }
+        }
+
+        System.out.println("Chunked files: " + blobs);
+        System.out.println("Size of chunked files: " + logicalBytes + " bytes");
+        System.out.println("Distinct chunks: " + chunks.size());
+        System.out.println("Size of distinct chunks: " + chunkBytes + " bytes");
+        System.out.println("Bytes saved: " + (logicalBytes - chunkBytes));
+    }
+
+    /** Returns the manifests of all chunked blobs, loose or packed */
+    private List<File> manifests() {
+        List<File> result = new ArrayList<>();
+        File[] dirs = objectsDir.listFiles(File::isDirectory);
+        if (dirs != null) {
+            for (File dir : dirs) {
+                if (dir.equals(chunksDir)) {
+                    continue;
+                }
+
+                for (String name : plainFilenamesIn(dir)) {
+                    if (name.endsWith(MANIFEST_SUFFIX)) {
+                        result.add(join(dir, name));
+                    }
+                }
+            }
+        }
+
+        File gitletDir = objectsDir.getParentFile();
+        for (String name : packs.packedNames()) {
+            if (name.startsWith("objects/") && name.endsWith(MANIFEST_SUFFIX)
+                    && !join(gitletDir, name).exists()) {
+                result.add(join(gitletDir, name));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Compresses every loose blob and chunk which is stored uncompressed.
+     *
+     * @return number of files compressed
+     */
+    public int compressAll() {
+        int count = 0;
+        File[] dirs = objectsDir.listFiles(File::isDirectory);
+        if (dirs == null) {
+            return 0;
+        }
+
+        for (File dir : dirs) {
+            File[] subDirs = dir.equals(chunksDir) ? dir.listFiles(File::isDirectory)
+                    : new File[] {dir};
+            for (File d : subDirs) {
+                for (String name : plainFilenamesIn(d)) {
+                    if (name.endsWith(MANIFEST_SUFFIX) || name.endsWith(COMPRESSED_SUFFIX)
+                            || name.startsWith(".")) {
+                        continue;
+                    }
+
+                    File f = join(d, name);
+                    try (InputStream in = Files.newInputStream(f.toPath())) {
+                        writeData(f, in);
+                    } catch (IOException excp) {
+                        throw error("Could not compress %s", name);
+                    }
+                    f.delete();
+                    ++count;
+                }
+            }
+        }
+        return count;
+    }
+}
@@ -1,13 +1,12 @@
 package gitlet;
 
 import java.io.File;
-import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.nio.file.StandardCopyOption;
-import java.nio.file.Files;
 import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
 
 import static gitlet.Commit.getCommit;
 import static gitlet.Repository.*;
@@ -28,7 +27,7 @@ public class Branch {
      * Returns name of the active branch
      */
     public static String getActiveBranchName() {
-        return Utils.readObject(HEAD, String.class);
+        return BinaryFormat.readRef(HEAD);
     }
 
     /**
@@ -37,7 +36,7 @@ public class Branch {
     public static String getHead(String branchName) {
         File latestCommit = Utils.join(LAST_COMMIT, branchName);
 
-        return Utils.readObject(latestCommit, String.class);
+        return BinaryFormat.readRef(latestCommit);
     }
 
     /**
@@ -47,130 +46,150 @@ public class Branch {
         return getHead(getActiveBranchName());
     }
 
-    public static void addCommit(String msg, Date d, HashMap<String, String> temp) {
-        addCommit(msg, d, temp, null);
+    public static void addCommit(String msg, Date d, HashMap<String, String> changes) {
+        addCommit(msg, d, changes, null);
     }
 
-    public static void addCommit(String msg, Date d, HashMap<String, String> temp,
+    /**
+     * Makes a commit on the active branch whose files are those of the last
+     * commit with CHANGES applied, which map file names to their new sha or to
+     * null for removed files
+     */
+    public static void addCommit(String msg, Date d, HashMap<String, String> changes,
                                  String secondParent) {
         String activeBranch = getActiveBranchName();
         String lastCommit = getHead(activeBranch);
 
-        Commit c;
-        if (secondParent == null) {
-            c = new Commit(d, lastCommit, msg, temp);
-        } else {
-            c = new Commit(d, lastCommit, secondParent, msg, temp);
-        }
+        String parentTree = lastCommit == null ? null : getCommit(lastCommit).getTree();
+        Commit c = new Commit(d, lastCommit, secondParent, msg,
+                Tree.update(parentTree, changes));
 
         String shaOfc = lastCommit == null ? sha1(c.toString()) : sha1(c.toString(), lastCommit);
         File newCommit = join(Commit.COMMITS_DIR, shaOfc);
 
-        writeObject(newCommit, c);
-        writeObject(join(LAST_COMMIT, activeBranch), shaOfc);
+        BinaryFormat.writeCommit(newCommit, c);
+        CommitGraph.local().add(shaOfc, c);
+        compareAndSetRef(GITLET_DIR, join(LAST_COMMIT, activeBranch), lastCommit, shaOfc);
     }
 
     public static void createNewBranch(String newBranchName) {
-        String activeBranchName = getActiveBranchName();
-
-        java.nio.file.Path lastCommitPath = LAST_COMMIT.toPath();
-        try {
-            Files.copy(lastCommitPath.resolve(activeBranchName),
-                    lastCommitPath.resolve(newBranchName),
-                    StandardCopyOption.REPLACE_EXISTING);
-        } catch (IOException ignored) {
-            return;
-        }
+        compareAndSetRef(GITLET_DIR, join(LAST_COMMIT, newBranchName), null, getHeadActive());
     }
 
     /**
-     * This function creates a set of Strings which contains all the sha in given branch
-     *
-     * @param commitSha the sha of the given branch
-     * @param s         set to which strings should be added
+     * Points REF, a ref in the repository GITLETDIR, to VALUE if it still points
+     * to EXPECTED, which is null for a ref that should not exist yet. Otherwise
+     * another command moved it since it was read, and the update is refused
+     * instead of losing the commits that command made.
      */
-    private static void createGraph(String commitSha, HashMap<String, Integer> s, int weight) {
-        if (commitSha == null) {
-            return;
-        }
+    static void compareAndSetRef(File gitletDir, File ref, String expected, String value) {
+        RepoLock.of(gitletDir).lock();
 
-        if (s.containsKey(commitSha)) {
-            if (weight + 1 < s.get(commitSha)) {
-                s.put(commitSha, weight + 1);
-            }
-            return;
+        String current = ref.exists() ? BinaryFormat.readRef(ref) : null;
+        if (!Objects.equals(current, expected)) {
+            throw error("The branch was moved by another command; try again.");
         }
-
-        s.put(commitSha, weight);
-        Commit c = getCommit(commitSha);
-
-        if (c.getSecondParent() != null) {
-            createGraph(c.getSecondParent(), s, weight + 1);
-        }
-        createGraph(c.getParent(), s, weight + 1);
+        BinaryFormat.writeRef(ref, value);
     }
 
-    private static class Point {
-        int weight;
-        String commitID;
-
-        Point(int w, String id) {
-            weight = w;
-            commitID = id;
-        }
-    }
+    /** Flags used while painting the history of the two branches */
+    private static final int PARENT1 = 1;
+    private static final int PARENT2 = 2;
+    private static final int STALE = 4;
 
     /**
-     * Searches for the common point from the given graph and other commit
-     *\
+     * Finds the split point of two commits in the given commit graph.
+     *
+     * Both heads are walked together, always expanding the queued commit with the
+     * highest generation number, and every commit is painted with the side(s) it
+     * is reachable from. The first commit reachable from both sides is a common
+     * ancestor, and everything below it is marked stale. Once only stale commits
+     * are left in the queue no other common ancestor can be closer, so the search
+     * stops without visiting the rest of the history.
+     *
+     * After a criss-cross merge there are several such ancestors, none of them
+     * reachable from another. The one with the highest generation is taken,
+     * then the newest, then the smallest id. Older gitlets took the one fewest
+     * commits away from the given branch, breaking ties by the distance from
+     * the current one, which can pick another of them when the branches are of
+     * uneven lengths.
+     *
+     * @param branchOneSha Last commit of first branch
+     * @param branchTwoSha Last Commit of second branch
+     * @return sha of the latest common ancestor
      */
-    private static Point search(String commitSha, int weight, HashMap<String, Integer> graph,
-                                HashSet<String> searched) {
-        if (searched.contains(commitSha)) {
-            return null;
+    static String getSplitPoint(CommitGraph g, String branchOneSha, String branchTwoSha) {
+        int one = g.ensure(branchOneSha), two = g.ensure(branchTwoSha);
+        if (one == two) {
+            return branchOneSha;
         }
 
-        searched.add(commitSha);
-        if (graph.containsKey(commitSha)) {
-            return new Point(weight, commitSha);
-        }
+        HashMap<Integer, Integer> flags = new HashMap<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>((a, b) -> {
+            if (g.generation(a) != g.generation(b)) {
+                return Integer.compare(g.generation(b), g.generation(a));
+            }
+            return Long.compare(g.timestamp(b), g.timestamp(a));
+        });
+
+        flags.put(one, PARENT1);
+        flags.put(two, PARENT2);
+        queue.add(one);
+        queue.add(two);
+        int nonStale = 2;
+        int best = CommitGraph.NONE;
+
+        while (nonStale > 0) {
+            int pos = queue.poll();
+            int f = flags.get(pos);
+            if ((f & STALE) == 0) {
+                --nonStale;
+            }
 
-        Commit c = getCommit(commitSha);
-        if (c.getSecondParent() != null) {
-            Point first = search(c.getParent(), weight + 1, graph, searched);
-            Point second = search(c.getSecondParent(), weight + 1, graph, searched);
-
-            if (second != null) {
-                if (second.weight < first.weight) {
-                    return second;
-                } else if (second.weight > first.weight) {
-                    return first;
-                } else if (graph.get(first.commitID) < graph.get(second.commitID)) {
-                    return first;
-                } else {
-                    return second;
+            if ((f & (PARENT1 | PARENT2)) == (PARENT1 | PARENT2) && (f & STALE) == 0) {
+                // Commits come out in generation order, so the first one is the latest
+                if (best == CommitGraph.NONE || isLater(g, pos, best)) {
+                    best = pos;
+                }
+                f |= STALE;
+                flags.put(pos, f);
+            }
+
+            for (int p : new int[] {g.parent(pos), g.secondParent(pos)}) {
+                if (p == CommitGraph.NONE) {
+                    continue;
+                }
+
+                Integer old = flags.get(p);
+                int pf = old == null ? 0 : old;
+                if ((pf & f) == f) {
+                    continue;
+                }
+
+                flags.put(p, pf | f);
+                if (old == null) {
+                    queue.add(p);
+                    if ((f & STALE) == 0) {
+                        ++nonStale;
+                    }
+                } else if ((pf & STALE) == 0 && (f & STALE) != 0) {
+                    --nonStale;
                 }
-            } else {
-                return first;
             }
-        } else {
-            return search(c.getParent(), weight + 1, graph, searched);
         }
-    }
 
-    /**
-     * Gives all the files in the split Point
-     *
-     * @param branchOneSha Last commit of first branch
-     * @param branchTwoSha Last Commit of second branch
-     * @return The Reference to files in the splitPoint
-     */
-    private static String getSplitPoint(String branchOneSha, String branchTwoSha) {
-        HashMap<String, Integer> graph = new HashMap<>();
-        createGraph(branchOneSha, graph, 0);
+        return g.id(best);
+    }
 
-        Point p = search(branchTwoSha, 0, graph, new HashSet<>());
-        return p.commitID;
+    /** Breaks ties between two common ancestors of the same generation */
+    private static boolean isLater(CommitGraph g, int a, int b) {
+        if (g.generation(a) != g.generation(b)) {
+            return g.generation(a) > g.generation(b);
+        }
+        if (g.timestamp(a) != g.timestamp(b)) {
+            return g.timestamp(a) > g.timestamp(b);
+        }
+        return g.id(a).compareTo(g.id(b)) < 0;
     }
 
     /**
@@ -182,39 +201,40 @@ public class Branch {
             return "";
         }
 
-        File f = Utils.join(Repository.OBJECTS_DIR, fileSha.substring(0, 1), fileSha);
-        return Utils.readContentsAsString(f);
+        return StandardCharsets.UTF_8.decode(BlobStore.local().contents(fileSha)).toString();
     }
 
     /**
-     * Solves the merge conflict between two files
+     * Merges the lines of a file both branches changed since the split point,
+     * putting conflict markers only around the parts they changed differently.
+     * Returns true if there were such parts.
      */
-    private static void conflict(String fileName, String headFileSha, String otherFileSha,
-                                 boolean conflicted) {
+    private static boolean conflict(String fileName, String splitFileSha, String headFileSha,
+                                    String otherFileSha, boolean conflicted) {
         if (headFileSha != null && headFileSha.equals(otherFileSha)) {
-            return;
+            return false;
         }
 
-        if (!conflicted) {
+        LineMerge merge = new LineMerge(readString(splitFileSha), readString(headFileSha),
+                readString(otherFileSha));
+        if (merge.hasConflicts() && !conflicted) {
             System.out.println("Encountered a merge conflict.");
         }
 
-        String s = String.format("<<<<<<< HEAD\n%s=======\n%s>>>>>>>\n",
-                readString(headFileSha), readString(otherFileSha));
-
-        String newFileSha = Utils.sha1Object(s, fileName);
-
-        File dir = join(Repository.OBJECTS_DIR, newFileSha.substring(0, 1));
-        dir.mkdir();
+        byte[] contents = merge.result().getBytes(StandardCharsets.UTF_8);
+        String newFileSha = BlobStore.id(contents, fileName);
 
-        writeContents(join(dir, newFileSha), s);
-        writeContents(join(Repository.CWD, fileName), s);
+        BlobStore.local().write(newFileSha, contents);
+        File f = join(Repository.CWD, fileName);
+        f.getParentFile().mkdirs();
+        writeContents(f, contents);
 
         nextMap.put(fileName, newFileSha);
+        return merge.hasConflicts();
     }
 
     private static void deleteinCWD(String fileName) {
-        join(Repository.CWD, fileName).delete();
+        deleteWorkingFile(fileName);
     }
 
     /**
@@ -223,11 +243,11 @@ public class Branch {
     public static void mergeBranch(String branchOne, String branchTwo) {
         // Files in head of split point and both branches
         String branchOneSha = getHead(branchOne), branchTwoSha = getHead(branchTwo);
-        String splitPointSha = getSplitPoint(branchOneSha, branchTwoSha);
+        String splitPointSha = getSplitPoint(CommitGraph.local(), branchOneSha,
+                branchTwoSha);
 
         if (splitPointSha.equals(branchTwoSha)) {
-            System.out.println("Given branch is an ancestor of the current branch.");
-            System.exit(0);
+            throw error("Given branch is an ancestor of the current branch.");
         }
 
         if (splitPointSha.equals(branchOneSha)) {
@@ -238,7 +258,9 @@ public class Branch {
         }
 
         HashMap<String, String> headFiles = nextMap;
-        HashMap<String, String> otherFiles = getCommit(branchTwoSha).getFilesInCommit();
+        HashMap<String, String> before = new HashMap<>(headFiles);
+        HashMap<String, String> otherFiles =
+                new HashMap<>(getCommit(branchTwoSha).getFilesInCommit());
         HashMap<String, String> splitPointFiles = getCommit(splitPointSha).getFilesInCommit();
 
         String shaInSplit, shaInHead, shaInOther;
@@ -263,8 +285,8 @@ public class Branch {
             } else if (shaInHead == shaInOther) {
                 deleteinCWD(i.getKey());
             } else {
-                conflict(i.getKey(), shaInHead, shaInOther, conflicted);
-                conflicted = true;
+                conflicted |= conflict(i.getKey(), shaInSplit, shaInHead, shaInOther,
+                        conflicted);
             }
 
             otherFiles.remove(i.getKey());
@@ -278,14 +300,14 @@ public class Branch {
                 headFiles.put(i.getKey(), shaInOther);
                 writeFileCWD(i.getKey(), i.getValue());
             } else {
-                conflict(i.getKey(), shaInHead, shaInOther, conflicted);
-                conflicted = true;
+                conflicted |= conflict(i.getKey(), null, shaInHead, shaInOther,
+                        conflicted);
             }
         }
 
         addCommit("Merged " + branchTwo + " into " + branchOne + ".", new Date(),
-                headFiles, branchTwoSha);
+                Tree.changes(before, headFiles), branchTwoSha);
 
-        Stage.saveStageMap();
+        Stage.saveFullStage();
     }
 }
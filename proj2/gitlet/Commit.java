@@ -19,8 +19,10 @@ public class Commit implements Serializable {
     private static final int SHA_LENGTH = 40;
     /** The message of this Commit. */
     private final String MSG;
-    /** Reference to all the files in the commit */
-    private final HashMap<String, String> FILES_IN_COMMIT;
+    /** Reference to all the files in the commit, read from the tree when needed */
+    private HashMap<String, String> FILES_IN_COMMIT;
+    /** Id of the tree holding the files, null for commits made before trees */
+    private String tree;
     /** Date at which commit was made */
     private final Date TIMESTAMP;
     /** Sha of the parent commit */
@@ -29,6 +31,9 @@ public class Commit implements Serializable {
     private String secondParent = null;
     /** Folder in which commits are stored */
     public static final File COMMITS_DIR = Utils.join(Repository.GITLET_DIR, "commits");
+    /** Commits read in this command, by id */
+    private static final LruCache<String, Commit> CACHE = new LruCache<>("cache.commits",
+            8 << 20);
 
     public Commit(Date d, String shaOParent, String msg, HashMap<String, String> files) {
         TIMESTAMP = d;
@@ -43,31 +48,24 @@ public class Commit implements Serializable {
         this.secondParent = secondParent;
     }
 
+    public Commit(Date d, String shaOParent, String secondParent, String msg, String tree) {
+        TIMESTAMP = d;
+        PARENT_COMMIT = shaOParent;
+        this.secondParent = secondParent;
+        MSG = msg;
+        this.tree = tree;
+    }
+
     /** Returns the Sha of the given filename
      *
      * @param filename name of the file
      * @return stored sha in the map
      */
     public String getSha(String filename) {
-        return FILES_IN_COMMIT.get(filename);
-    }
-
-    private static class FirstXCompare implements Comparator<String> {
-        @Override
-        public int compare(String s1, String s2) {
-            int limit = Math.min(s1.length(), s2.length());
-
-            int i = 0;
-            while (i < limit) {
-                char ch1 = s1.charAt(i);
-                char ch2 = s2.charAt(i);
-                if (ch1 != ch2) {
-                    return ch1 - ch2;
-                }
-                ++i;
-            }
-            return 0;
+        if (FILES_IN_COMMIT == null) {
+            return Tree.lookup(tree, filename);
         }
+        return FILES_IN_COMMIT.get(filename);
     }
 
     public static String getFullCommit(String halfCommit) {
@@ -75,17 +73,14 @@ public class Commit implements Serializable {
             return halfCommit;
         }
 
-        List<String> l = Utils.plainFilenamesIn(COMMITS_DIR);
-
-        int index = Collections.binarySearch(l, halfCommit, new FirstXCompare());
-        if (index >= 0) {
-            return l.get(index);
+        List<Map.Entry<String, String>> l = CommitGraph.ids().prefix(halfCommit, 2);
+        if (l.size() == 1) {
+            return l.get(0).getKey();
+        } else if (l.size() > 1) {
+            throw Utils.error("Ambiguous commit id.");
         }
 
-        System.out.println("No commit with that id exists.");
-        System.exit(0);
-
-        return null;
+        throw Utils.error("No commit with that id exists.");
     }
 
     /**
@@ -97,16 +92,25 @@ public class Commit implements Serializable {
             return null;
         }
 
-        File f = Utils.join(COMMITS_DIR, getFullCommit(shaOfCommit));
+        String id = getFullCommit(shaOfCommit);
+        Commit c = CACHE.get(id);
+        if (c != null) {
+            return c;
+        }
 
         try {
-            return Utils.readObject(f, Commit.class);
+            byte[] bytes = Packs.local().read(Utils.join(COMMITS_DIR, id));
+            c = BinaryFormat.readCommit(bytes);
+            CACHE.put(id, c, bytes.length);
+            return c;
         } catch (IllegalArgumentException ignored) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
+            throw Utils.error("No commit with that id exists.");
         }
+    }
 
-        return null;
+    /** Drops the commit ID from the cache, after its file was rewritten */
+    static void forget(String id) {
+        CACHE.remove(id);
     }
 
     public String getMsg() {
@@ -121,15 +125,45 @@ public class Commit implements Serializable {
         return secondParent;
     }
 
+    /** Returns the path and sha of every file, which must not be modified */
     public HashMap<String, String> getFilesInCommit() {
+        if (FILES_IN_COMMIT == null) {
+            FILES_IN_COMMIT = Tree.flatten(tree);
+        }
         return FILES_IN_COMMIT;
     }
 
+    /** Returns the id of the tree of this commit, or null if it lists its files */
+    String treeId() {
+        return tree;
+    }
+
+    /** Returns the id of the tree of this commit, writing it first for old commits */
+    public String getTree() {
+        if (tree == null) {
+            tree = Tree.update(null, FILES_IN_COMMIT);
+        }
+        return tree;
+    }
+
+    public Date getTimestamp() {
+        return TIMESTAMP;
+    }
+
     /** Used to convert the given commit to a string
      *
      * @return String of commit
      */
     public String toString() {
+        return format(TIMESTAMP, MSG, PARENT_COMMIT, secondParent);
+    }
+
+    /**
+     * Formats a commit the way it is shown in the log, so that commits can
+     * be printed from the commit graph without being read
+     */
+    public static String format(Date timestamp, String msg, String parent,
+                                String secondParent) {
         StringBuilder sb = new StringBuilder();
 
         Locale ind = new Locale("en", "IN");
@@ -137,17 +171,17 @@ public class Commit implements Serializable {
 
         if (secondParent != null) {
             sb.append("Merge: ");
-            sb.append(PARENT_COMMIT, 0, 7);
+            sb.append(parent, 0, 7);
             sb.append(" ");
             sb.append(secondParent, 0, 7);
             sb.append("\n");
         }
 
         sb.append("Date: ");
-        formatter.format("%ta %tb %td %tT %tY %tz", TIMESTAMP, TIMESTAMP, TIMESTAMP,
-                TIMESTAMP, TIMESTAMP, TIMESTAMP);
+        formatter.format("%ta %tb %td %tT %tY %tz", timestamp, timestamp, timestamp,
+                timestamp, timestamp, timestamp);
         sb.append("\n");
-        sb.append(MSG);
+        sb.append(msg);
 
         return sb.toString();
     }
@@ -0,0 +1,456 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * A compact, append-only index of the commit history.
+ * For every commit it stores its parents (as positions in this graph), its
+ * generation number, its timestamp and an offset into a side file holding
+ * the commit message. Traversals (log, find, split point search) read this
+ * file instead of deserializing every commit object.
+ *
+ * Layout of the graph file: a header of MAGIC and VERSION followed by fixed
+ * size records of
+ *   id (40 ASCII bytes) | parent (int) | second parent (int) |
+ *   generation (int) | timestamp (long) | message offset (long)
+ * Messages are stored as a length followed by UTF-8 bytes.
+ *
+ * A SortedIndex in commit-ids maps every commit id to its position, so that
+ * abbreviated ids are resolved without listing the commits, and PathFilters
+ * keeps the paths each commit changed by position.
+ *
+ * Both files are memory-mapped and records are only decoded when they are
+ * visited, so opening the graph does not depend on the length of the history.
+ * Message offsets are longs and the messages file is mapped a window at a
+ * time, so it may grow past 2 GiB; a graph file that large is refused.
+ *
+ * @author Kheyanshu Garg
+ */
+public class CommitGraph {
+    /** Position used for a missing parent */
+    public static final int NONE = -1;
+
+    private static final int MAGIC = 0x43475048;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int ID_LENGTH = 40;
+    private static final int RECORD_SIZE = ID_LENGTH + 4 + 4 + 4 + 8 + 8;
+    /** Bytes of the messages file mapped at once */
+    private static final long MESSAGE_WINDOW = 64 << 20;
+
+    /** Graph of the repository in the current working directory */
+    private static CommitGraph local;
+
+    private final File graphFile;
+    private final File msgFile;
+    private final File commitsDir;
+    private final Packs packs;
+    private final SortedIndex idIndex;
+    private final MessageIndex messageIndex;
+    private final PathFilters pathFilters;
+    /** True while rebuilding, when the id index is written once at the end */
+    private boolean bulk;
+
+    /** The graph file as it was when opened; records are decoded on demand */
+    private MappedByteBuffer graph;
+    /** Number of records in the mapped graph file */
+    private int mapped;
+
+    /* Commits added since the graph file was mapped, at positions from mapped on */
+    private final ArrayList<String> ids = new ArrayList<>();
+    private final HashMap<String, Integer> positions = new HashMap<>();
+    private final ArrayList<int[]> links = new ArrayList<>();
+    private final ArrayList<Long> timestamps = new ArrayList<>();
+    private final ArrayList<Long> msgOffsets = new ArrayList<>();
+    /** The message file, mapped on first use and again once it has grown */
+    /** The part of the messages file from messagesStart on which was mapped last */
+    private MappedByteBuffer messages;
+    private long messagesStart;
+
+    /**
+     * Opens the commit graph of the given .gitlet directory, building it from
+     * the commit objects if it does not exist yet.
+     */
+    public CommitGraph(File gitletDir) {
+        graphFile = join(gitletDir, "commit-graph");
+        msgFile = join(gitletDir, "commit-msgs");
+        commitsDir = join(gitletDir, "commits");
+        packs = Packs.of(gitletDir);
+        idIndex = SortedIndex.of(join(gitletDir, "commit-ids"));
+        messageIndex = new MessageIndex(gitletDir);
+        pathFilters = new PathFilters(gitletDir);
+
+        if (graphFile.exists() && msgFile.exists()) {
+            load();
+            if (!idIndex.exists()) {
+                writeIdIndex();
+            }
+        } else {
+            rebuild();
+        }
+    }
+
+    /** Creates an empty graph which is only kept in memory and has no messages */
+    CommitGraph() {
+        graphFile = null;
+        msgFile = null;
+        commitsDir = null;
+        packs = null;
+        idIndex = null;
+        messageIndex = null;
+        pathFilters = null;
+    }
+
+    /**
+     * Returns the index from commit ids to positions of the current repository,
+     * without loading the graph unless the index has to be built
+     */
+    public static SortedIndex ids() {
+        SortedIndex index = SortedIndex.of(join(Repository.GITLET_DIR, "commit-ids"));
+        if (!index.exists()) {
+            local();
+        }
+        return index;
+    }
+
+    /** Returns the graph of the current repository */
+    public static CommitGraph local() {
+        if (local == null) {
+            local = new CommitGraph(Repository.GITLET_DIR);
+        }
+        return local;
+    }
+
+    /** Forgets the graph of the current repository, to be opened again when next used */
+    static void closeLocal() {
+        local = null;
+    }
+
+    private void load() {
+        graph = map(graphFile);
+        if (graph.capacity() < HEADER_SIZE || graph.getInt(0) != MAGIC
+                || graph.getInt(4) != VERSION) {
+            rebuild();
+            return;
+        }
+
+        // A trailing partial record is what an interrupted append leaves behind;
+        // the next add writes over it
+        mapped = (graph.capacity() - HEADER_SIZE) / RECORD_SIZE;
+    }
+
+    private static MappedByteBuffer map(File f) {
+        return map(f, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Maps at most LENGTH bytes of F from START on. Fails if the whole file
+     * was asked for and it is too large to be mapped at once.
+     */
+    private static MappedByteBuffer map(File f, long start, long length) {
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            if (start == 0 && length == Integer.MAX_VALUE && ch.size() > length) {
+                throw error("%s is too large to be read", f.getName());
+            }
+            return ch.map(FileChannel.MapMode.READ_ONLY, start,
+                    Math.max(0, Math.min(length, ch.size() - start)));
+        } catch (IOException excp) {
+            throw error("Could not read %s", f.getName());
+        }
+    }
+
+    /** Throws away the stored graph and recreates it from the commit objects */
+    public void rebuild() {
+        RepoLock.of(graphFile.getParentFile()).lock();
+        graph = null;
+        mapped = 0;
+        ids.clear();
+        positions.clear();
+        links.clear();
+        timestamps.clear();
+        msgOffsets.clear();
+        messages = null;
+        pathFilters.clear();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION);
+        writeContents(graphFile, (Object) header.array());
+        writeContents(msgFile, "");
+
+        bulk = true;
+        for (String i : packs.list(commitsDir)) {
+            ensure(i);
+        }
+        bulk = false;
+        writeIdIndex();
+        messageIndex.rebuild(this);
+    }
+
+    private void writeIdIndex() {
+        TreeMap<String, String> entries = new TreeMap<>();
+        for (int i = 0; i < size(); ++i) {
+            entries.put(id(i), Integer.toString(i));
+        }
+        idIndex.write(new ArrayList<>(entries.entrySet()));
+    }
+
+    /** Returns the filters of the paths changed by each commit, built up to date */
+    public PathFilters pathFilters() {
+        pathFilters.update(this);
+        return pathFilters;
+    }
+
+    /** Number of commits in the graph */
+    public int size() {
+        return mapped + ids.size();
+    }
+
+    public boolean contains(String commitId) {
+        return position(commitId) != NONE;
+    }
+
+    /** Returns the position of the commit or NONE if it is not in the graph */
+    public int position(String commitId) {
+        if (commitId == null) {
+            return NONE;
+        }
+
+        Integer p = positions.get(commitId);
+        if (p != null) {
+            return p;
+        }
+        if (mapped == 0) {
+            return NONE;
+        }
+
+        String value = idIndex.get(commitId);
+        if (value != null) {
+            int pos = Integer.parseInt(value);
+            if (pos < mapped && id(pos).equals(commitId)) {
+                return pos;
+            }
+        }
+        return NONE;
+    }
+
+    /** Offset of the record of the mapped commit at POS */
+    private static int record(int pos) {
+        return HEADER_SIZE + pos * RECORD_SIZE;
+    }
+
+    public String id(int pos) {
+        if (pos == NONE) {
+            return null;
+        } else if (pos >= mapped) {
+            return ids.get(pos - mapped);
+        }
+
+        byte[] id = new byte[ID_LENGTH];
+        graph.get(record(pos), id);
+        return new String(id, StandardCharsets.US_ASCII);
+    }
+
+    private int link(int pos, int i) {
+        if (pos >= mapped) {
+            return links.get(pos - mapped)[i];
+        }
+        return graph.getInt(record(pos) + ID_LENGTH + 4 * i);
+    }
+
+    public int parent(int pos) {
+        return link(pos, 0);
+    }
+
+    public int secondParent(int pos) {
+        return link(pos, 1);
+    }
+
+    public int generation(int pos) {
+        return link(pos, 2);
+    }
+
+    public long timestamp(int pos) {
+        if (pos >= mapped) {
+            return timestamps.get(pos - mapped);
+        }
+        return graph.getLong(record(pos) + ID_LENGTH + 12);
+    }
+
+    private long msgOffset(int pos) {
+        if (pos >= mapped) {
+            return msgOffsets.get(pos - mapped);
+        }
+        return graph.getLong(record(pos) + ID_LENGTH + 20);
+    }
+
+    public String message(int pos) {
+        long offset = msgOffset(pos);
+        int length = messageWindow(offset, 4).getInt((int) (offset - messagesStart));
+        byte[] bytes = new byte[length];
+        messageWindow(offset, 4 + length).get((int) (offset + 4 - messagesStart), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the mapped part of the messages file holding the LENGTH bytes
+     * at OFFSET. The file can grow past what one buffer can map, so a window
+     * of it is mapped, aligned so that reading the messages of the log from
+     * the newest back stays in one window for a while.
+     */
+    private MappedByteBuffer messageWindow(long offset, int length) {
+        if (messages == null || offset < messagesStart
+                || offset + length > messagesStart + messages.capacity()) {
+            messagesStart = offset - offset % (MESSAGE_WINDOW / 2);
+            messages = map(msgFile, messagesStart,
+                    Math.max(MESSAGE_WINDOW, offset - messagesStart + length));
+            if (offset + length > messagesStart + messages.capacity()) {
+                throw error("Corrupted gitlet object.");
+            }
+        }
+        return messages;
+    }
+
+    /** Returns the log entry of the commit exactly as Commit.toString would */
+    public String describe(int pos) {
+        return Commit.format(new Date(timestamp(pos)), message(pos),
+                id(parent(pos)), id(secondParent(pos)));
+    }
+
+    /**
+     * Returns the position of the given commit, adding it and any of its
+     * missing ancestors from the commit objects. This is how commits copied
+     * in from another repository end up in the graph.
+     */
+    public int ensure(String commitId) {
+        int pos = position(commitId);
+        if (pos != NONE) {
+            return pos;
+        }
+
+        ArrayDeque<String> stack = new ArrayDeque<>();
+        HashMap<String, Commit> read = new HashMap<>();
+        stack.push(commitId);
+
+        while (!stack.isEmpty()) {
+            String top = stack.peek();
+            if (contains(top)) {
+                stack.pop();
+                continue;
+            }
+
+            Commit c = read.get(top);
+            if (c == null) {
+                c = BinaryFormat.readCommit(packs.read(join(commitsDir, top)));
+                read.put(top, c);
+            }
+
+            boolean ready = true;
+            for (String p : new String[] {c.getParent(), c.getSecondParent()}) {
+                if (p != null && !contains(p)) {
+                    stack.push(p);
+                    ready = false;
+                }
+            }
+
+            if (ready) {
+                stack.pop();
+                read.remove(top);
+                add(top, c);
+            }
+        }
+
+        return position(commitId);
+    }
+
+    /**
+     * Appends a commit whose parents are already in the graph.
+     * Does nothing if the commit is already present.
+     */
+    public void add(String commitId, Commit c) {
+        add(commitId, c.getParent(), c.getSecondParent(), c.getTimestamp().getTime(),
+                c.getMsg());
+    }
+
+    void add(String commitId, String parentId, String secondParentId, long timestamp,
+             String msg) {
+        if (contains(commitId)) {
+            return;
+        }
+
+        int parent = position(parentId);
+        int second = position(secondParentId);
+        int generation = 1;
+        if (parent != NONE) {
+            generation = Math.max(generation, generation(parent) + 1);
+        }
+        if (second != NONE) {
+            generation = Math.max(generation, generation(second) + 1);
+        }
+
+        long offset = NONE;
+        if (graphFile != null) {
+            // Read-only commands take the lock only when they have to add commits
+            RepoLock.of(graphFile.getParentFile()).lock();
+            offset = msgFile.length();
+            byte[] bytes = msg.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer msgRecord = ByteBuffer.allocate(4 + bytes.length);
+            msgRecord.putInt(bytes.length).put(bytes);
+            append(msgFile, msgRecord.array());
+
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            record.put(commitId.getBytes(StandardCharsets.US_ASCII));
+            record.putInt(parent).putInt(second).putInt(generation);
+            record.putLong(timestamp).putLong(offset);
+            // Written after the last complete record, over any torn one behind it
+            writeAt(graphFile, HEADER_SIZE + (long) size() * RECORD_SIZE, record.array());
+            if (!bulk) {
+                idIndex.put(commitId, Integer.toString(size()));
+                // A missing message index is built from the whole graph when needed
+                if (messageIndex.exists()) {
+                    messageIndex.add(commitId, msg);
+                }
+            }
+        }
+
+        positions.put(commitId, size());
+        ids.add(commitId);
+        links.add(new int[] {parent, second, generation});
+        timestamps.add(timestamp);
+        msgOffsets.add(offset);
+    }
+
+    private static void append(File f, byte[] bytes) {
+        try (FileOutputStream out = new FileOutputStream(f, true)) {
+            out.write(bytes);
+        } catch (IOException excp) {
+            throw error("Could not update %s", f.getName());
+        }
+    }
+
+    /** Writes BYTES to F at POSITION, and cuts off whatever followed */
+    private static void writeAt(File f, long position, byte[] bytes) {
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.WRITE)) {
+            ch.truncate(position);
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            while (buf.hasRemaining()) {
+                ch.write(buf, position + buf.position());
+            }
+        } catch (IOException excp) {
+            throw error("Could not update %s", f.getName());
+        }
+    }
+}
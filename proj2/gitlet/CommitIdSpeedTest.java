@@ -0,0 +1,88 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/** Times resolving abbreviated commit ids with the SortedIndex kept in
+ *  .gitlet/commit-ids against listing and sorting a directory of commit files,
+ *  which is what gitlet used to do.
+ *  Usage: java gitlet.CommitIdSpeedTest [NUMBER_OF_COMMITS]
+ *  @author Kheyanshu Garg
+ */
+public class CommitIdSpeedTest {
+    private static final int LOOKUPS = 1000;
+
+    public static void main(String[] args) throws IOException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        File dir = Files.createTempDirectory("gitlet-ids").toFile();
+        Random r = new Random(5);
+
+        String[] ids = new String[n];
+        for (int i = 0; i < n; ++i) {
+            ids[i] = Utils.sha1(Integer.toString(r.nextInt()), Integer.toString(i));
+        }
+
+        SortedIndex index = SortedIndex.of(Utils.join(dir, "commit-ids"));
+        // Each quarter is timed on its own, as an average over all of them
+        // would hide puts getting slower as the index grows
+        for (int q = 0; q < 4; ++q) {
+            int from = n * q / 4, to = n * (q + 1) / 4;
+            long start = System.nanoTime();
+            for (int i = from; i < to; ++i) {
+                index.put(ids[i], Integer.toString(i));
+            }
+            System.out.printf("Adding ids %d to %d: %.4f ms per id%n", from, to,
+                    (System.nanoTime() - start) / 1e6 / Math.max(1, to - from));
+        }
+
+        File commits = Utils.join(dir, "commits");
+        commits.mkdir();
+        for (String id : ids) {
+            Utils.join(commits, id).createNewFile();
+        }
+
+        String[] prefixes = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; ++i) {
+            prefixes[i] = ids[r.nextInt(n)].substring(0, 8);
+        }
+
+        long start = System.nanoTime();
+        for (String p : prefixes) {
+            if (index.prefix(p, 2).size() != 1) {
+                throw new AssertionError("could not resolve " + p);
+            }
+        }
+        System.out.printf("SortedIndex.prefix:        %.4f ms per lookup%n",
+                (System.nanoTime() - start) / 1e6 / LOOKUPS);
+
+        int rounds = Math.max(1, LOOKUPS / 100);
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; ++i) {
+            List<String> l = Utils.plainFilenamesIn(commits);
+            Collections.binarySearch(l, prefixes[i], (a, b) ->
+                    a.startsWith(b) || b.startsWith(a) ? 0 : a.compareTo(b));
+        }
+        System.out.printf("Listing the directory:     %.4f ms per lookup%n",
+                (System.nanoTime() - start) / 1e6 / rounds);
+
+        String twin = ids[0].substring(0, 8) + "0".repeat(32);
+        index.put(twin, "-1");
+        if (index.prefix(ids[0].substring(0, 8), 2).size() != 2) {
+            throw new AssertionError("ambiguous prefix was not detected");
+        }
+        System.out.println("Ambiguous prefixes are detected.");
+
+        for (File f : commits.listFiles()) {
+            f.delete();
+        }
+        commits.delete();
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+}
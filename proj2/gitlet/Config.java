@@ -0,0 +1,132 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * Settings of a repository, saved as a properties file in .gitlet/config.
+ * Only the keys listed in DEFAULTS exist.
+ *
+ * @author Kheyanshu Garg
+ */
+public class Config {
+    /** File in which the settings are saved */
+    public static final File CONFIG = join(Repository.GITLET_DIR, "config");
+
+    /** Compression of stored file contents, either "none" or "deflate" */
+    public static final String COMPRESSION = "core.compression";
+
+    /** Hash of new file contents, either "sha1" or "sha256" */
+    public static final String HASH = "core.hashAlgorithm";
+
+    /** Seconds an unreachable object is kept by gc after it was written */
+    public static final String GC_GRACE = "gc.gracePeriod";
+
+    /** Bytes a pack written by repack or gc may hold at most */
+    public static final String PACK_MAX = "pack.maxSize";
+
+    private static final TreeMap<String, String> DEFAULTS = new TreeMap<>();
+
+    static {
+        DEFAULTS.put(COMPRESSION, "none");
+        DEFAULTS.put(HASH, "sha1");
+        DEFAULTS.put(GC_GRACE, String.valueOf(14 * 24 * 60 * 60));
+        DEFAULTS.put(PACK_MAX, String.valueOf(1 << 30));
+    }
+
+    private static Properties props;
+
+    private static Properties load() {
+        if (props == null) {
+            props = new Properties();
+            if (CONFIG.exists()) {
+                try (InputStream in = Files.newInputStream(CONFIG.toPath())) {
+                    props.load(in);
+                } catch (IOException excp) {
+                    throw error("Could not read the configuration.");
+                }
+            }
+        }
+        return props;
+    }
+
+    /** Forgets the settings read so far, to be read again when next used */
+    public static void reload() {
+        props = null;
+    }
+
+    /** Returns the value of KEY, or its default if it was never set */
+    public static String get(String key) {
+        return load().getProperty(key, DEFAULTS.get(key));
+    }
+
+    /** True if new file contents should be stored compressed */
+    public static boolean compress() {
+        return get(COMPRESSION).equals("deflate");
+    }
+
+    /** Returns the name MessageDigest knows the hash of file contents by */
+    public static String hashAlgorithm() {
+        return get(HASH).equals("sha256") ? "SHA-256" : "SHA-1";
+    }
+
+    /** Returns the grace period of gc in milliseconds */
+    public static long gcGraceMillis() {
+        return Long.parseLong(get(GC_GRACE)) * 1000;
+    }
+
+    /** Returns the largest size of a new pack in bytes */
+    public static long packMaxBytes() {
+        return Long.parseLong(get(PACK_MAX));
+    }
+
+    /**
+     * Prints the value of KEY, or sets it to VALUE if VALUE is not null
+     */
+    public static void config(String key, String value) {
+        if (!DEFAULTS.containsKey(key)) {
+            throw error("No such configuration key.");
+        }
+
+        if (value == null) {
+            System.out.println(get(key));
+            return;
+        }
+
+        if (key.equals(COMPRESSION) && !value.equals("none") && !value.equals("deflate")) {
+            throw error("Compression must be none or deflate.");
+        }
+
+        if (key.equals(HASH) && !value.equals("sha1") && !value.equals("sha256")) {
+            throw error("The hash algorithm must be sha1 or sha256.");
+        }
+
+        if (key.equals(GC_GRACE) && !value.matches("[0-9]{1,12}")) {
+            throw error("The grace period must be a number of seconds.");
+        }
+
+        if (key.equals(PACK_MAX) && (!value.matches("[0-9]{1,10}")
+                || Long.parseLong(value) < 1024 || Long.parseLong(value) > Integer.MAX_VALUE)) {
+            throw error("The pack size must be a number of bytes from 1024 to %d.",
+                    Integer.MAX_VALUE);
+        }
+
+        boolean rehash = key.equals(HASH) && !value.equals(get(HASH));
+        load().setProperty(key, value);
+        try (OutputStream out = Files.newOutputStream(CONFIG.toPath())) {
+            props.store(out, null);
+        } catch (IOException excp) {
+            throw error("Could not save the configuration.");
+        }
+        if (rehash) {
+            System.out.println("Run gitlet migrate to rehash the stored files.");
+        }
+    }
+}
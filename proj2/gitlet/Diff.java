@@ -0,0 +1,208 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Line diffs with the linear space variant of Myers' O(ND) algorithm.
+ *
+ * Lines are first turned into ints, so that comparing two lines is one int
+ * comparison. Lines which appear in only one of the two files can never be
+ * matched, so they are set aside before the search and the common prefix and
+ * suffix of each subproblem are skipped, leaving Myers to work on what is left
+ * around the actual edits. The search looks for the middle snake of the edit
+ * graph from both ends at once and then solves the two halves on each side of
+ * it, reusing the same two arrays throughout.
+ *
+ * @author Kheyanshu Garg
+ */
+public class Diff {
+    private final int[] a;
+    private final int[] b;
+    /** For each line of a, the line of b it is matched with or -1 */
+    private final int[] match;
+    /* Furthest reaching paths of the forward and backward searches, by diagonal */
+    private final int[] forward;
+    private final int[] backward;
+
+    private Diff(int[] a, int[] b) {
+        this.a = a;
+        this.b = b;
+        match = new int[a.length];
+        Arrays.fill(match, -1);
+        int size = a.length + b.length + 5;
+        forward = new int[size];
+        backward = new int[size];
+    }
+
+    /** Splits TEXT into lines, each keeping its line terminator */
+    public static List<String> lines(String text) {
+        List<String> result = new ArrayList<>();
+        int start = 0;
+        for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', start)) {
+            result.add(text.substring(start, i + 1));
+            start = i + 1;
+        }
+        if (start < text.length()) {
+            result.add(text.substring(start));
+        }
+        return result;
+    }
+
+    /** Returns the numbers of LINES, giving equal lines the same number in IDS */
+    static int[] intern(List<String> lines, HashMap<String, Integer> ids) {
+        int[] result = new int[lines.size()];
+        for (int i = 0; i < result.length; ++i) {
+            Integer id = ids.get(lines.get(i));
+            if (id == null) {
+                id = ids.size();
+                ids.put(lines.get(i), id);
+            }
+            result[i] = id;
+        }
+        return result;
+    }
+
+    /**
+     * Returns, for every line of A, the line of B it is kept as in a longest
+     * common subsequence of the two, or -1 if it was removed. The matched
+     * lines of B are increasing.
+     */
+    public static int[] match(int[] a, int[] b) {
+        int max = 0;
+        for (int i : a) {
+            max = Math.max(max, i + 1);
+        }
+        for (int i : b) {
+            max = Math.max(max, i + 1);
+        }
+        boolean[] inA = new boolean[max];
+        boolean[] inB = new boolean[max];
+        for (int i : a) {
+            inA[i] = true;
+        }
+        for (int i : b) {
+            inB[i] = true;
+        }
+
+        // Lines found in only one file cannot be matched, so only the others are diffed
+        int[] aIndex = new int[a.length];
+        int[] bIndex = new int[b.length];
+        int[] aKept = keep(a, inB, aIndex);
+        int[] bKept = keep(b, inA, bIndex);
+
+        Diff d = new Diff(aKept, bKept);
+        d.solve(0, aKept.length, 0, bKept.length);
+
+        int[] result = new int[a.length];
+        Arrays.fill(result, -1);
+        for (int i = 0; i < aKept.length; ++i) {
+            if (d.match[i] >= 0) {
+                result[aIndex[i]] = bIndex[d.match[i]];
+            }
+        }
+        return result;
+    }
+
+    /** Returns the lines of X which are in OTHER, recording where each came from in INDEX */
+    private static int[] keep(int[] x, boolean[] other, int[] index) {
+        int n = 0;
+        int[] kept = new int[x.length];
+        for (int i = 0; i < x.length; ++i) {
+            if (other[x[i]]) {
+                index[n] = i;
+                kept[n++] = x[i];
+            }
+        }
+        return Arrays.copyOf(kept, n);
+    }
+
+    /** Matches the lines a[aLo, aHi) with the lines b[bLo, bHi) */
+    private void solve(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            match[aLo++] = bLo++;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            match[--aHi] = --bHi;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            return;
+        }
+
+        int[] snake = middleSnake(aLo, aHi, bLo, bHi);
+        int x = snake[0], y = snake[1], u = snake[2], v = snake[3];
+        for (int i = 0; i < u - x; ++i) {
+            match[x + i] = y + i;
+        }
+
+        if (x - aLo + y - bLo < aHi - aLo + bHi - bLo) {
+            solve(aLo, x, bLo, y);
+        }
+        if (aHi - u + bHi - v < aHi - aLo + bHi - bLo) {
+            solve(u, aHi, v, bHi);
+        }
+    }
+
+    /**
+     * Returns the start and end {x, y, u, v} of the middle snake of an optimal
+     * edit path from (aLo, bLo) to (aHi, bHi), both ends in absolute lines
+     */
+    private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo, m = bHi - bLo;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int limit = (n + m + 1) / 2;
+        // Diagonal k is at index k + offset; only diagonals within limit are used
+        int offset = limit + 1;
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+
+        for (int d = 0; d <= limit; ++d) {
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])) {
+                    x = forward[offset + k + 1];
+                } else {
+                    x = forward[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                int startX = x, startY = y;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    ++x;
+                    ++y;
+                }
+                forward[offset + k] = x;
+
+                int back = delta - k;
+                if (odd && back >= -(d - 1) && back <= d - 1
+                        && x + backward[offset + back] >= n) {
+                    return new int[] {aLo + startX, bLo + startY, aLo + x, bLo + y};
+                }
+            }
+
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && backward[offset + k - 1] < backward[offset + k + 1])) {
+                    x = backward[offset + k + 1];
+                } else {
+                    x = backward[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                int startX = x, startY = y;
+                while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    ++x;
+                    ++y;
+                }
+                backward[offset + k] = x;
+
+                int fwd = delta - k;
+                if (!odd && fwd >= -d && fwd <= d && x + forward[offset + fwd] >= n) {
+                    return new int[] {aHi - x, bHi - y, aHi - startX, bHi - startY};
+                }
+            }
+        }
+        throw new IllegalStateException("no middle snake");
+    }
+}
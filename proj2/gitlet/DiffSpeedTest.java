@@ -0,0 +1,74 @@
+package gitlet;
+
+import java.util.Random;
+
+/** Checks Diff.match against a dynamic-programming longest common subsequence
+ *  on random small inputs, then times it on files of growing size with one
+ *  changed line in every thousand.
+ *  Usage: java gitlet.DiffSpeedTest [LARGEST_SIZE_IN_LINES]
+ *  @author Kheyanshu Garg
+ */
+public class DiffSpeedTest {
+
+    public static void main(String[] args) {
+        int largest = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 20;
+        Random r = new Random(17);
+
+        // Few distinct lines, so that there are many equally long matches
+        for (int i = 0; i < 20000; ++i) {
+            int[] a = random(r, r.nextInt(40), 1 + r.nextInt(6));
+            int[] b = random(r, r.nextInt(40), 1 + r.nextInt(6));
+            check(a, b, Diff.match(a, b));
+        }
+        System.out.println("Diff.match agrees with the LCS length on 20000 random inputs.");
+
+        for (int n = 1024; n <= largest; n *= 4) {
+            int[] a = new int[n];
+            int[] b = new int[n];
+            for (int i = 0; i < n; ++i) {
+                a[i] = i;
+                b[i] = i % 1000 == 500 ? n + i : i;
+            }
+
+            // Warm up once so that the timing does not include compiling the diff
+            Diff.match(a, b);
+            long start = System.nanoTime();
+            Diff.match(a, b);
+            System.out.printf("%8d lines: %8.1f ms%n", n, (System.nanoTime() - start) / 1e6);
+        }
+    }
+
+    private static int[] random(Random r, int length, int distinct) {
+        int[] result = new int[length];
+        for (int i = 0; i < length; ++i) {
+            result[i] = r.nextInt(distinct);
+        }
+        return result;
+    }
+
+    /** Fails unless MATCH pairs equal lines of A and B in order, as many as an LCS has */
+    private static void check(int[] a, int[] b, int[] match) {
+        int matched = 0, last = -1;
+        for (int i = 0; i < a.length; ++i) {
+            if (match[i] < 0) {
+                continue;
+            }
+            if (match[i] <= last || match[i] >= b.length || a[i] != b[match[i]]) {
+                throw new AssertionError("bad match of line " + i);
+            }
+            last = match[i];
+            ++matched;
+        }
+
+        int[][] lcs = new int[a.length + 1][b.length + 1];
+        for (int i = a.length - 1; i >= 0; --i) {
+            for (int j = b.length - 1; j >= 0; --j) {
+                lcs[i][j] = a[i] == b[j] ? lcs[i + 1][j + 1] + 1
+                        : Math.max(lcs[i + 1][j], lcs[i][j + 1]);
+            }
+        }
+        if (matched != lcs[0][0]) {
+            throw new AssertionError("matched " + matched + " lines, LCS has " + lcs[0][0]);
+        }
+    }
+}
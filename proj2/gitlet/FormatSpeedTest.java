@@ -0,0 +1,75 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Date;
+import java.util.HashMap;
+
+/** Compares encoding and decoding commits with Java serialization (Utils.serialize)
+ *  and with BinaryFormat.
+ *  Usage: java gitlet.FormatSpeedTest [FILES_PER_COMMIT]
+ *  @author Kheyanshu Garg
+ */
+public class FormatSpeedTest {
+    private static final int ROUNDS = 2000;
+
+    public static void main(String[] args) throws IOException, ClassNotFoundException {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+
+        HashMap<String, String> map = new HashMap<>();
+        for (int i = 0; i < files; ++i) {
+            map.put("file" + i + ".txt", Utils.sha1("contents", Integer.toString(i)));
+        }
+        Commit c = new Commit(new Date(), Utils.sha1("parent"), "a commit message", map);
+
+        byte[] serialized = Utils.serialize(c);
+        byte[] binary = BinaryFormat.encodeCommit(c);
+        System.out.printf("Commit with %d files: serialized %d bytes, binary %d bytes%n",
+                files, serialized.length, binary.length);
+
+        // Warm up both paths before timing them
+        for (int i = 0; i < ROUNDS; ++i) {
+            Utils.serialize(c);
+            deserialize(serialized);
+            BinaryFormat.encodeCommit(c);
+            BinaryFormat.decodeCommit(binary);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; ++i) {
+            Utils.serialize(c);
+        }
+        report("Utils.serialize", start, serialized.length);
+
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; ++i) {
+            deserialize(serialized);
+        }
+        report("ObjectInputStream", start, serialized.length);
+
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; ++i) {
+            BinaryFormat.encodeCommit(c);
+        }
+        report("BinaryFormat.encodeCommit", start, binary.length);
+
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; ++i) {
+            BinaryFormat.decodeCommit(binary);
+        }
+        report("BinaryFormat.decodeCommit", start, binary.length);
+    }
+
+    private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+
+    private static void report(String name, long start, int size) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("  %-28s %8.1f commits/s %8.1f MB/s%n", name, ROUNDS / seconds,
+                (double) size * ROUNDS / seconds / 1e6);
+    }
+}
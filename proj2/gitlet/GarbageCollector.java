@@ -0,0 +1,357 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static gitlet.Utils.*;
+
+/**
+ * Deletes the commits and objects no branch can reach any more, like the
+ * blobs of files which were staged and then changed or removed, and the
+ * commits of deleted branches.
+ *
+ * Everything reachable from the branches and remote branches, and from the
+ * stage, is marked first. Commits written within the grace period are marked
+ * as well, with everything they reach, so that objects a command or a push is
+ * still writing are never lost. The marks are 64 bit fingerprints of the
+ * names of the objects, kept in a compact table rather than as strings, and
+ * trees are only read once however many commits share them.
+ *
+ * The sweep then goes through the store one directory at a time, commits
+ * first, then trees, then blobs and manifests, then chunks, so that an object
+ * is only deleted after everything which refers to it. Directories are swept
+ * in parallel, and packs holding unreachable objects are rewritten without
+ * them.
+ *
+ * gc --incremental only looks at the loose files, which are those written
+ * since the last repack or incremental gc. Everything in a pack was packed
+ * together with all it refers to, so the marking stops at packed commits and
+ * trees, and packs are not pruned. The loose files still reachable are then
+ * packed, so the next incremental pass starts from what was written after it.
+ *
+ * A serve daemon answers HAS and PUT without the repository lock, so gc can
+ * run in the middle of a push. HAS touches the objects it reports, which keeps
+ * them for the grace period, and UPDATE refuses a commit whose objects have
+ * gone missing all the same, so a push racing gc fails and can be retried,
+ * but never leaves a branch pointing at an incomplete commit.
+ *
+ * @author Kheyanshu Garg
+ */
+public class GarbageCollector {
+    private final File gitletDir;
+    private final File commitsDir;
+    private final File objectsDir;
+    private final Packs packs;
+    private final BlobStore blobs;
+    /** Objects last written before this time may be deleted */
+    private final long cutoff;
+    private final MarkSet marks = new MarkSet();
+    private final ForkJoinPool pool;
+    private final AtomicInteger commitsRemoved = new AtomicInteger();
+    /** True if only loose files are looked at */
+    private final boolean incremental;
+
+    private GarbageCollector(File gitletDir, long cutoff, boolean incremental) {
+        this.gitletDir = gitletDir;
+        this.commitsDir = join(gitletDir, "commits");
+        this.objectsDir = join(gitletDir, "objects");
+        this.packs = Packs.of(gitletDir);
+        this.blobs = new BlobStore(objectsDir);
+        this.cutoff = cutoff;
+        this.incremental = incremental;
+        pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Collects the garbage of the current repository, among the loose files
+     * only if INCREMENTAL
+     */
+    public static void collect(boolean incremental) {
+        long cutoff = System.currentTimeMillis() - Config.gcGraceMillis();
+        new GarbageCollector(Repository.GITLET_DIR, cutoff, incremental).run();
+    }
+
+    private void run() {
+        try {
+            List<String> commits = liveCommits();
+            pool.submit(() -> commits.parallelStream().forEach(this::markCommit)).get();
+
+            Stage.loadFullStage();
+            for (String sha : Stage.nextMap.values()) {
+                if (blobs.contains(sha)) {
+                    markBlob(sha);
+                }
+            }
+        } catch (ExecutionException | InterruptedException | IllegalArgumentException
+                 | GitletException excp) {
+            // Never sweep with an incomplete set of marks
+            throw error("Cannot collect garbage: some objects are missing.");
+        }
+
+        int removed = sweepDir(commitsDir);
+        commitsRemoved.addAndGet(removed);
+        removed += sweepShards(join(objectsDir, "trees"), Set.of());
+        removed += sweepShards(objectsDir, Set.of("trees", "chunks"));
+        removed += sweepShards(join(objectsDir, "chunks"), Set.of());
+        if (incremental) {
+            List<File> live = new ArrayList<>();
+            for (File f : packs.looseFiles()) {
+                if (marks.contains(name(f))) {
+                    live.add(f);
+                }
+            }
+            packs.packLoose(live);
+        } else {
+            removed += packs.prune(name -> {
+                boolean live = marks.contains(name);
+                if (!live && name.startsWith("commits/")) {
+                    commitsRemoved.incrementAndGet();
+                }
+                return live;
+            }, cutoff);
+        }
+        pool.shutdown();
+
+        if (commitsRemoved.get() > 0) {
+            CommitGraph.local().rebuild();
+        }
+        Metrics.add("gc.removed", removed);
+        System.out.println("Removed " + removed + " unreachable objects.");
+    }
+
+    private String name(File f) {
+        return gitletDir.toPath().relativize(f.toPath()).toString()
+                .replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Returns the commits reachable from a branch or from a commit written
+     * within the grace period, only the loose ones if incremental
+     */
+    private List<String> liveCommits() {
+        List<String> roots = new ArrayList<>();
+        addRefs(join(gitletDir, "lastCommit"), roots);
+        List<String> commits = incremental ? plainFilenamesIn(commitsDir) : packs.list(commitsDir);
+        for (String i : commits == null ? List.<String>of() : commits) {
+            if (!i.startsWith(".") && packs.lastModified(join(commitsDir, i)) >= cutoff) {
+                roots.add(i);
+            }
+        }
+
+        CommitGraph g = CommitGraph.local();
+        BitSet seen = new BitSet();
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        for (String i : roots) {
+            int pos = g.ensure(i);
+            if (!seen.get(pos) && isCandidate(join(commitsDir, i))) {
+                seen.set(pos);
+                stack.push(pos);
+            }
+        }
+
+        List<String> result = new ArrayList<>();
+        while (!stack.isEmpty()) {
+            int pos = stack.pop();
+            result.add(g.id(pos));
+            for (int p : new int[] {g.parent(pos), g.secondParent(pos)}) {
+                if (p != CommitGraph.NONE && !seen.get(p)
+                        && isCandidate(join(commitsDir, g.id(p)))) {
+                    seen.set(p);
+                    stack.push(p);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * True if F may be swept, so that marking has to go through it: any file,
+     * or only a loose one if incremental, as packs hold what they refer to
+     */
+    private boolean isCandidate(File f) {
+        return !incremental || f.isFile();
+    }
+
+    private static void addRefs(File dir, List<String> result) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (f.isDirectory()) {
+                addRefs(f, result);
+            } else if (!f.getName().startsWith(".")) {
+                result.add(BinaryFormat.readRef(f));
+            }
+        }
+    }
+
+    private void markCommit(String id) {
+        File f = join(commitsDir, id);
+        marks.add(name(f));
+        Commit c = BinaryFormat.readCommit(packs.read(f));
+
+        if (c.treeId() == null) {
+            for (String sha : c.getFilesInCommit().values()) {
+                markBlob(sha);
+            }
+        } else {
+            markTree(c.treeId());
+        }
+    }
+
+    private void markTree(String id) {
+        File f = Tree.fileIn(gitletDir, id);
+        if (!isCandidate(f) || !marks.add(name(f))) {
+            return;
+        }
+
+        for (Map.Entry<String, String> i : BinaryFormat.decodeTree(packs.read(f)).entrySet()) {
+            if (Tree.isTree(i.getKey())) {
+                markTree(i.getValue());
+            } else {
+                markBlob(i.getValue());
+            }
+        }
+    }
+
+    private void markBlob(String sha) {
+        if (!marks.add("blob " + sha)) {
+            return;
+        }
+        for (File f : blobs.filesOf(sha)) {
+            marks.add(name(f));
+        }
+    }
+
+    /** Sweeps every subdirectory of DIR except those named in SKIP, in parallel */
+    private int sweepShards(File dir, Set<String> skip) {
+        File[] shards = dir.listFiles(f -> f.isDirectory() && !skip.contains(f.getName()));
+        if (shards == null) {
+            return 0;
+        }
+
+        try {
+            return pool.submit(() -> Arrays.stream(shards).parallel()
+                    .mapToInt(this::sweepDir).sum()).get();
+        } catch (ExecutionException | InterruptedException excp) {
+            throw error("Could not collect garbage: %s", excp.getMessage());
+        }
+    }
+
+    /**
+     * Deletes the unmarked files of DIR older than the grace period, including
+     * files left behind by interrupted atomic writes, and returns how many
+     */
+    private int sweepDir(File dir) {
+        File[] files = dir.listFiles(File::isFile);
+        if (files == null) {
+            return 0;
+        }
+
+        int removed = 0;
+        for (File f : files) {
+            if (f.lastModified() < cutoff && (f.getName().startsWith(".")
+                    || !marks.contains(name(f)))) {
+                Metrics.add("gc.bytes", f.length());
+                if (f.delete()) {
+                    ++removed;
+                }
+            }
+        }
+        if (!dir.equals(commitsDir)) {
+            // Only succeeds if the shard is now empty
+            dir.delete();
+        }
+        return removed;
+    }
+
+    /**
+     * A set of 64 bit fingerprints of names, in 64 open addressing tables
+     * which can be added to from many threads at once. Two names with the same
+     * fingerprint keep each other alive, which at worst leaves garbage behind.
+     */
+    private static class MarkSet {
+        private static final int STRIPES = 64;
+        private final long[][] tables = new long[STRIPES][];
+        private final int[] sizes = new int[STRIPES];
+        private final Object[] locks = new Object[STRIPES];
+
+        MarkSet() {
+            for (int i = 0; i < STRIPES; ++i) {
+                tables[i] = new long[1024];
+                locks[i] = new Object();
+            }
+        }
+
+        private static long fingerprint(String name) {
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < name.length(); ++i) {
+                h ^= name.charAt(i);
+                h *= 0x100000001b3L;
+            }
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            return h == 0 ? 1 : h;
+        }
+
+        /** Adds NAME and returns true unless it was there already */
+        boolean add(String name) {
+            long h = fingerprint(name);
+            int stripe = (int) (h & (STRIPES - 1));
+            synchronized (locks[stripe]) {
+                long[] table = tables[stripe];
+                int slot = slot(table, h);
+                if (table[slot] == h) {
+                    return false;
+                }
+
+                table[slot] = h;
+                if (++sizes[stripe] * 2 > table.length) {
+                    grow(stripe);
+                }
+                return true;
+            }
+        }
+
+        boolean contains(String name) {
+            long h = fingerprint(name);
+            int stripe = (int) (h & (STRIPES - 1));
+            synchronized (locks[stripe]) {
+                long[] table = tables[stripe];
+                return table[slot(table, h)] == h;
+            }
+        }
+
+        /** Returns the slot holding H, or the empty slot where it would go */
+        private static int slot(long[] table, long h) {
+            int mask = table.length - 1;
+            int slot = (int) (h >>> 6) & mask;
+            while (table[slot] != 0 && table[slot] != h) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow(int stripe) {
+            long[] old = tables[stripe];
+            long[] table = new long[old.length * 2];
+            for (long h : old) {
+                if (h != 0) {
+                    table[slot(table, h)] = h;
+                }
+            }
+            tables[stripe] = table;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/** Times hashing many files the way add used to, reading each one into memory
+ *  on a single thread, against streaming them through the digest on a
+ *  ForkJoin pool with one to all of the available processors.
+ *  Usage: java gitlet.HashSpeedTest [NUMBER_OF_FILES] [FILE_SIZE]
+ *  @author Kheyanshu Garg
+ */
+public class HashSpeedTest {
+
+    public static void main(String[] args)
+            throws IOException, InterruptedException, ExecutionException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 16 * 1024;
+        File dir = Files.createTempDirectory("gitlet-hash").toFile();
+        Random r = new Random(8);
+
+        File[] files = new File[n];
+        byte[] contents = new byte[size];
+        for (int i = 0; i < n; ++i) {
+            r.nextBytes(contents);
+            files[i] = Utils.join(dir, "f" + i);
+            Utils.writeContents(files[i], (Object) contents);
+        }
+
+        String[] expected = new String[n];
+        long start = System.nanoTime();
+        for (int i = 0; i < n; ++i) {
+            expected[i] = BlobStore.id(Utils.readContents(files[i]), files[i].getName());
+        }
+        System.out.printf("readContents, 1 thread:  %.1f ms%n", (System.nanoTime() - start) / 1e6);
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            start = System.nanoTime();
+            pool.submit(() -> IntStream.range(0, n).parallel().forEach(i -> {
+                if (!BlobStore.id(files[i], files[i].getName()).equals(expected[i])) {
+                    throw new AssertionError("hashes differ for " + files[i].getName());
+                }
+            })).get();
+            pool.shutdown();
+            System.out.printf("streamed, %2d threads:    %.1f ms%n", threads,
+                    (System.nanoTime() - start) / 1e6);
+        }
+
+        for (File f : files) {
+            f.delete();
+        }
+        dir.delete();
+    }
+}
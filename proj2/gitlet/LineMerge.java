@@ -0,0 +1,118 @@
+package gitlet;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A three-way merge of the lines of a file, as done by diff3.
+ *
+ * Both versions are diffed against the base. Lines of the base which both
+ * versions kept unchanged split the files into stable runs and the chunks
+ * between them. A chunk only one side changed takes that side, a chunk both
+ * sides changed in the same way is taken once, and anything else becomes a
+ * conflict region holding just that chunk of each side:
+ *   <<<<<<< HEAD
+ *   lines of the head
+ *   =======
+ *   lines of the other branch
+ *   >>>>>>>
+ *
+ * @author Kheyanshu Garg
+ */
+public class LineMerge {
+    private final StringBuilder result = new StringBuilder();
+    private int conflicts;
+
+    private final List<String> baseLines;
+    private final List<String> headLines;
+    private final List<String> otherLines;
+    private final int[] base;
+    private final int[] head;
+    private final int[] other;
+
+    /** Merges the changes from BASE to HEAD with those from BASE to OTHER */
+    public LineMerge(String base, String head, String other) {
+        baseLines = Diff.lines(base);
+        headLines = Diff.lines(head);
+        otherLines = Diff.lines(other);
+
+        HashMap<String, Integer> ids = new HashMap<>();
+        this.base = Diff.intern(baseLines, ids);
+        this.head = Diff.intern(headLines, ids);
+        this.other = Diff.intern(otherLines, ids);
+        merge(Diff.match(this.base, this.head), Diff.match(this.base, this.other));
+    }
+
+    public String result() {
+        return result.toString();
+    }
+
+    /** True if some chunk was changed differently on both sides */
+    public boolean hasConflicts() {
+        return conflicts > 0;
+    }
+
+    private void merge(int[] toHead, int[] toOther) {
+        int o = 0, h = 0, t = 0;
+
+        while (o < base.length || h < head.length || t < other.length) {
+            while (o < base.length && toHead[o] == h && toOther[o] == t) {
+                result.append(baseLines.get(o));
+                ++o;
+                ++h;
+                ++t;
+            }
+
+            // The chunk ends at the next line of the base both sides kept
+            int nextO = o;
+            while (nextO < base.length && (toHead[nextO] < 0 || toOther[nextO] < 0)) {
+                ++nextO;
+            }
+            int nextH = nextO < base.length ? toHead[nextO] : head.length;
+            int nextT = nextO < base.length ? toOther[nextO] : other.length;
+
+            if (nextO > o || nextH > h || nextT > t) {
+                chunk(o, nextO, h, nextH, t, nextT);
+            }
+            o = nextO;
+            h = nextH;
+            t = nextT;
+        }
+    }
+
+    private void chunk(int o, int oEnd, int h, int hEnd, int t, int tEnd) {
+        boolean headChanged = !same(base, o, oEnd, head, h, hEnd);
+        boolean otherChanged = !same(base, o, oEnd, other, t, tEnd);
+
+        if (!headChanged) {
+            append(otherLines, t, tEnd);
+        } else if (!otherChanged || same(head, h, hEnd, other, t, tEnd)) {
+            append(headLines, h, hEnd);
+        } else {
+            ++conflicts;
+            result.append("<<<<<<< HEAD\n");
+            append(headLines, h, hEnd);
+            result.append("=======\n");
+            append(otherLines, t, tEnd);
+            result.append(">>>>>>>\n");
+        }
+    }
+
+    private static boolean same(int[] x, int xLo, int xHi, int[] y, int yLo, int yHi) {
+        if (xHi - xLo != yHi - yLo) {
+            return false;
+        }
+        for (int i = 0; i < xHi - xLo; ++i) {
+            if (x[xLo + i] != y[yLo + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void append(List<String> lines, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            result.append(lines.get(i));
+        }
+    }
+}
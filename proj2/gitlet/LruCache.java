@@ -0,0 +1,73 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A least recently used cache which holds values up to a total weight, such
+ * as their size in bytes. Values heavier than a quarter of the limit are not
+ * kept at all, so one large value cannot push out everything else. Lookups
+ * are counted in Metrics as NAME.hit and NAME.miss.
+ *
+ * The values are shared, so they must not be modified once cached.
+ *
+ * @author Kheyanshu Garg
+ */
+public class LruCache<K, V> {
+    private final String name;
+    private final long maxWeight;
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+
+    private static class Entry<V> {
+        final V value;
+        final long weight;
+
+        Entry(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    public LruCache(String name, long maxWeight) {
+        this.name = name;
+        this.maxWeight = maxWeight;
+    }
+
+    /** Returns the value of KEY, or null if it is not cached */
+    public synchronized V get(K key) {
+        Entry<V> e = entries.get(key);
+        Metrics.count(name + (e == null ? ".miss" : ".hit"));
+        return e == null ? null : e.value;
+    }
+
+    /** Drops the value of KEY, if it is cached */
+    public synchronized void remove(K key) {
+        Entry<V> e = entries.remove(key);
+        if (e != null) {
+            weight -= e.weight;
+        }
+    }
+
+    /**
+     * Caches VALUE of weight W under KEY, dropping the least recently used
+     * values if needed
+     */
+    public synchronized void put(K key, V value, long w) {
+        if (w > maxWeight / 4) {
+            return;
+        }
+
+        Entry<V> old = entries.put(key, new Entry<>(value, w));
+        if (old != null) {
+            weight -= old.weight;
+        }
+        weight += w;
+
+        Iterator<Entry<V>> it = entries.values().iterator();
+        while (weight > maxWeight && it.hasNext()) {
+            weight -= it.next().weight;
+            it.remove();
+        }
+    }
+}
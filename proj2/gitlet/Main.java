@@ -1,23 +1,171 @@
 package gitlet;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
 /**
  * Driver class for Gitlet, a subset of the Git version-control system.
  *
  * @author Kheyanshu Garg
  */
 public class Main {
+    /** Commands which do not change the repository and so run without its lock */
+    private static final Set<String> READ_ONLY = Set.of("log", "global-log", "find",
+            "status", "chunk-report", "diff");
 
     /**
-     * Usage: java gitlet.Main ARGS, where ARGS contains
+     * Usage: java gitlet.Main [--stats] [--trace] ARGS, where ARGS contains
      * <COMMAND> <OPERAND1> <OPERAND2> ...
+     * With --stats the counters in Metrics are printed to stderr at exit.
+     * With --trace, or GITLET_TRACE=1, the spans of Trace are reported at exit
+     * along with the counters.
+     * With ARGS "batch" the commands are read from the standard input instead.
      */
     public static void main(String[] args) {
-        if (args.length == 0) {
-            System.out.println("Please enter a command.");
+        boolean stats = false, trace = Trace.requested();
+        while (args.length > 0 && (args[0].equals("--stats") || args[0].equals("--trace"))) {
+            stats |= args[0].equals("--stats");
+            trace |= args[0].equals("--trace");
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        if (trace) {
+            Trace.enable();
+        } else if (stats) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> Metrics.print(System.err)));
+        }
+
+        if (args.length == 1 && args[0].equals("batch")) {
+            runBatch();
+            return;
+        }
+
+        try {
+            run(args);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
             System.exit(0);
         }
+    }
+
+    /** Runs the command ARGS, holding the lock of the repository if it writes */
+    @SuppressWarnings("try")
+    private static void run(String[] args) {
+        if (args.length == 0) {
+            throw error("Please enter a command.");
+        }
+
+        // serve takes the lock for each request it answers instead
+        if (!READ_ONLY.contains(args[0]) && !args[0].equals("serve")
+                && Repository.GITLET_DIR.isDirectory()) {
+            RepoLock.local().lock();
+        }
+
+        try (Trace.Span s = Trace.begin("command " + args[0])) {
+            callCommands(args);
+            StatCache.save();
+        }
+    }
+
+    /**
+     * Runs the commands on the lines of the standard input one after the other
+     * in this process, so that the JVM starts once and the caches stay warm.
+     * Each line is a command and its operands as they would be given to the
+     * shell, and prints exactly what that command prints on its own. A command
+     * which fails prints its message and the next one is run. Every command
+     * has written all its changes and released the locks it took before the
+     * next line is read, and files other processes may have changed since are
+     * reopened.
+     */
+    private static void runBatch() {
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in,
+                StandardCharsets.UTF_8));
+        try {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                try {
+                    String[] args = splitLine(line);
+                    if (args.length == 0) {
+                        continue;
+                    } else if (args[0].equals("batch") || args[0].equals("serve")) {
+                        throw error("That command cannot be run in batch mode.");
+                    }
+                    run(args);
+                } catch (GitletException excp) {
+                    System.out.println(excp.getMessage());
+                } finally {
+                    RepoLock.unlockAll();
+                    System.out.flush();
+                }
+                reload();
+            }
+        } catch (IOException excp) {
+            throw error("Could not read the commands: %s", excp.getMessage());
+        }
+    }
+
+    /** Forgets what was read from files another process may have replaced */
+    private static void reload() {
+        Packs.refreshAll();
+        SortedIndex.reloadAll();
+        CommitGraph.closeLocal();
+        Config.reload();
+    }
+
+    /**
+     * Splits LINE into words at spaces like a shell, keeping what is between
+     * single or double quotes together and taking the character after a
+     * backslash literally. Empty lines and lines starting with # have no words.
+     */
+    static String[] splitLine(String line) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = null;
+        char quote = 0;
+
+        for (int i = 0; i < line.length(); ++i) {
+            char c = line.charAt(i);
+            if (word == null) {
+                if (Character.isWhitespace(c)) {
+                    continue;
+                } else if (c == '#' && words.isEmpty()) {
+                    break;
+                }
+                word = new StringBuilder();
+            }
+
+            if (quote != 0 && c == quote) {
+                quote = 0;
+            } else if (c == '\\' && quote != '\'' && i + 1 < line.length()) {
+                word.append(line.charAt(++i));
+            } else if (quote != 0) {
+                word.append(c);
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (Character.isWhitespace(c)) {
+                words.add(word.toString());
+                word = null;
+            } else {
+                word.append(c);
+            }
+        }
 
-        callCommands(args);
+        if (quote != 0) {
+            throw error("Unterminated quote.");
+        }
+        if (word != null) {
+            words.add(word.toString());
+        }
+        return words.toArray(new String[0]);
     }
 
     private static void callCommands(String[] args) {
@@ -28,8 +176,10 @@ public class Main {
                 Repository.createRepository();
                 break;
             case "add":
-                validateNumArgs(args, 2);
-                Repository.addFile(args[1]);
+                if (args.length < 2) {
+                    throw error("Incorrect operands.");
+                }
+                Repository.addFiles(Arrays.asList(args).subList(1, args.length));
                 break;
             case "commit":
                 validateNumArgs(args, 2);
@@ -40,16 +190,20 @@ public class Main {
                 Repository.removeFile(args[1]);
                 break;
             case "log":
-                validateNumArgs(args, 1);
-                Repository.printLog();
+                callLog(args);
                 break;
             case "global-log":
                 validateNumArgs(args, 1);
                 Repository.globalLog();
                 break;
             case "find":
-                validateNumArgs(args, 2);
-                Repository.findCommits(args[1]);
+                if (args.length == 3 && (args[1].equals("--token")
+                        || args[1].equals("--substring"))) {
+                    Repository.findCommits(args[2], args[1]);
+                } else {
+                    validateNumArgs(args, 2);
+                    Repository.findCommits(args[1], null);
+                }
                 break;
             case "status":
                 validateNumArgs(args, 1);
@@ -94,9 +248,49 @@ public class Main {
                 validateNumArgs(args, 3);
                 RemoteRepository.getRemoteDir(args[1]).pull(args[2]);
                 break;
+            case "diff":
+                callDiff(args);
+                break;
+            case "serve":
+                callServe(args);
+                break;
+            case "chunk-report":
+                validateNumArgs(args, 1);
+                Repository.validateGitletRepo();
+                BlobStore.local().printReport();
+                break;
+            case "config":
+                if (args.length != 2) {
+                    validateNumArgs(args, 3);
+                }
+                Repository.validateGitletRepo();
+                Config.config(args[1], args.length == 3 ? args[2] : null);
+                break;
+            case "gc":
+                if (args.length == 2 && args[1].equals("--incremental")) {
+                    Repository.validateGitletRepo();
+                    GarbageCollector.collect(true);
+                    break;
+                }
+                validateNumArgs(args, 1);
+                Repository.validateGitletRepo();
+                GarbageCollector.collect(false);
+                break;
+            case "repack":
+                validateNumArgs(args, 1);
+                Repository.validateGitletRepo();
+                Packs.local().repack();
+                break;
+            case "reindex":
+                validateNumArgs(args, 1);
+                Repository.reindex();
+                break;
+            case "migrate":
+                validateNumArgs(args, 1);
+                Repository.migrate();
+                break;
             default:
-                System.out.println("No command with that name exists.");
-                System.exit(0);
+                throw error("No command with that name exists.");
         }
     }
 
@@ -112,11 +306,100 @@ public class Main {
         } else if (args.length == 2) {
             Repository.checkOutBranch(args[1]);
         } else {
-            System.out.println("Incorrect operands.");
-            System.exit(0);
+            throw error("Incorrect operands.");
         }
     }
 
+    /**
+     * Parses the options of log: -n COUNT, --since DATE and --skip COUNT, where
+     * DATE is either yyyy-mm-dd or yyyy-mm-ddThh:mm:ss in local time, and
+     * last -- PATH
+     */
+    private static void callLog(String[] args) {
+        int limit = Integer.MAX_VALUE, skip = 0;
+        long since = Long.MIN_VALUE;
+        String path = null;
+
+        try {
+            for (int i = 1; i < args.length; i += 2) {
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException();
+                }
+
+                switch (args[i]) {
+                    case "-n":
+                        limit = Integer.parseInt(args[i + 1]);
+                        break;
+                    case "--skip":
+                        skip = Integer.parseInt(args[i + 1]);
+                        break;
+                    case "--since":
+                        since = parseDate(args[i + 1]);
+                        break;
+                    case "--":
+                        path = args[i + 1].replaceAll("/+$", "");
+                        if (i + 2 != args.length || path.isEmpty()) {
+                            throw new IllegalArgumentException();
+                        }
+                        break;
+                    default:
+                        throw new IllegalArgumentException();
+                }
+            }
+        } catch (IllegalArgumentException | DateTimeParseException excp) {
+            throw error("Incorrect operands.");
+        }
+
+        if (limit < 0 || skip < 0) {
+            throw error("Incorrect operands.");
+        }
+        Repository.printLog(limit, since, skip, path);
+    }
+
+    /** Parses diff [COMMIT [COMMIT]] [-- PATH] */
+    private static void callDiff(String[] args) {
+        List<String> operands = Arrays.asList(args).subList(1, args.length);
+        String path = null;
+
+        int dashes = operands.indexOf("--");
+        if (dashes >= 0) {
+            if (dashes != operands.size() - 2) {
+                throw error("Incorrect operands.");
+            }
+            path = operands.get(dashes + 1).replaceAll("/+$", "");
+            operands = operands.subList(0, dashes);
+        }
+
+        if (operands.size() > 2) {
+            throw error("Incorrect operands.");
+        }
+        Repository.printDiff(operands.size() > 0 ? operands.get(0) : null,
+                operands.size() > 1 ? operands.get(1) : null, path);
+    }
+
+    /** Parses serve [PORT] and serves the repository until killed */
+    private static void callServe(String[] args) {
+        int port = RemoteServer.DEFAULT_PORT;
+        try {
+            if (args.length > 2) {
+                throw new IllegalArgumentException();
+            } else if (args.length == 2) {
+                port = Integer.parseInt(args[1]);
+            }
+        } catch (IllegalArgumentException excp) {
+            throw error("Incorrect operands.");
+        }
+
+        Repository.validateGitletRepo();
+        RemoteServer.serve(port);
+    }
+
+    private static long parseDate(String date) {
+        LocalDateTime time = date.contains("T") ? LocalDateTime.parse(date)
+                : LocalDate.parse(date).atStartOfDay();
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
     /**
      * @param args  Argument array from command line
      * @param n     Number of expected arguments
@@ -126,8 +409,7 @@ public class Main {
      */
     private static void validateNumArgs(String[] args, int n) {
         if (args.length != n) {
-            System.out.println("Incorrect Operands.");
-            System.exit(0);
+            throw error("Incorrect Operands.");
         }
     }
 }
@@ -0,0 +1,43 @@
+package gitlet;
+
+import java.util.Random;
+
+/** Times the three-way line merge of files of growing size, each branch
+ *  changing one line in every thousand, to check that the time grows about
+ *  linearly with the size of the files.
+ *  Usage: java gitlet.MergeSpeedTest [LARGEST_SIZE_IN_MB]
+ *  @author Kheyanshu Garg
+ */
+public class MergeSpeedTest {
+
+    public static void main(String[] args) {
+        int largest = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        Random r = new Random(17);
+
+        for (int mb = 1; mb <= largest; mb *= 2) {
+            StringBuilder base = new StringBuilder();
+            StringBuilder head = new StringBuilder();
+            StringBuilder other = new StringBuilder();
+            int lines = 0;
+            while (base.length() < mb << 20) {
+                String line = "line " + lines + " " + r.nextInt(1000) + "\n";
+                base.append(line);
+                head.append(lines % 1000 == 1 ? "head " + line : line);
+                other.append(lines % 1000 == 500 ? "other " + line : line);
+                ++lines;
+            }
+
+            // Warm up once so that the timing does not include compiling the merge
+            new LineMerge(base.toString(), head.toString(), other.toString());
+            long start = System.nanoTime();
+            LineMerge m = new LineMerge(base.toString(), head.toString(), other.toString());
+            double ms = (System.nanoTime() - start) / 1e6;
+
+            if (m.hasConflicts()) {
+                throw new AssertionError("non-overlapping edits conflicted");
+            }
+            System.out.printf("%3d MB, %8d lines: %8.1f ms, %6.1f ms/MB%n", mb, lines, ms,
+                    ms / mb);
+        }
+    }
+}
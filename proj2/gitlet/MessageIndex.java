@@ -0,0 +1,173 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/**
+ * An inverted index from commit messages to the commits which have them, kept
+ * in a SortedIndex in .gitlet/message-index so that find does not read every
+ * commit.
+ *
+ * Every commit adds the keys
+ *   m NUL message NUL id   for finding the exact message
+ *   t NUL token NUL id     for every word of the message in lower case
+ *   g NUL trigram NUL id   for every three characters of the message
+ * A search reads the keys with the right prefix and takes the ids from them.
+ * Substrings are found by intersecting the commits of their trigrams and then
+ * checking the few commits left against the commit graph.
+ *
+ * @author Kheyanshu Garg
+ */
+public class MessageIndex {
+    private static final char SEP = '\0';
+    private static final String EXACT = "m";
+    private static final String TOKEN = "t";
+    private static final String TRIGRAM = "g";
+
+    private final SortedIndex index;
+    private final RepoLock lock;
+
+    public MessageIndex(File gitletDir) {
+        index = SortedIndex.of(join(gitletDir, "message-index"));
+        lock = RepoLock.of(gitletDir);
+    }
+
+    /** Returns the index of the current repository, building it if needed */
+    public static MessageIndex local() {
+        MessageIndex m = new MessageIndex(Repository.GITLET_DIR);
+        if (!m.exists()) {
+            m.rebuild(CommitGraph.local());
+        }
+        return m;
+    }
+
+    /** True if the index has been built for this repository */
+    public boolean exists() {
+        return index.exists();
+    }
+
+    private static String key(String kind, String term, String id) {
+        return kind + SEP + term + SEP + id;
+    }
+
+    /** Returns the words of MSG in lower case, without repeats */
+    static List<String> tokens(String msg) {
+        LinkedHashSet<String> result = new LinkedHashSet<>();
+        for (String t : msg.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!t.isEmpty()) {
+                result.add(t);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    private static List<String> trigrams(String msg) {
+        LinkedHashSet<String> result = new LinkedHashSet<>();
+        for (int i = 0; i + 3 <= msg.length(); ++i) {
+            result.add(msg.substring(i, i + 3));
+        }
+        return new ArrayList<>(result);
+    }
+
+    private static List<String> keys(String id, String msg) {
+        List<String> keys = new ArrayList<>();
+        keys.add(key(EXACT, msg, id));
+        for (String t : tokens(msg)) {
+            keys.add(key(TOKEN, t, id));
+        }
+        for (String g : trigrams(msg)) {
+            keys.add(key(TRIGRAM, g, id));
+        }
+        return keys;
+    }
+
+    /** Adds the commit ID with the message MSG */
+    public void add(String id, String msg) {
+        List<Map.Entry<String, String>> entries = new ArrayList<>();
+        for (String k : keys(id, msg)) {
+            entries.add(Map.entry(k, ""));
+        }
+        index.putAll(entries);
+    }
+
+    /** Replaces the index with the messages of every commit in G */
+    public void rebuild(CommitGraph g) {
+        lock.lock();
+        TreeSet<String> keys = new TreeSet<>();
+        for (int i = 0; i < g.size(); ++i) {
+            keys.addAll(keys(g.id(i), g.message(i)));
+        }
+
+        List<Map.Entry<String, String>> entries = new ArrayList<>(keys.size());
+        for (String k : keys) {
+            entries.add(Map.entry(k, ""));
+        }
+        index.write(entries);
+    }
+
+    /** Returns the ids of the commits under the term TERM of kind KIND, in order */
+    private TreeSet<String> postings(String kind, String term) {
+        String prefix = kind + SEP + term + SEP;
+        TreeSet<String> ids = new TreeSet<>();
+        for (Map.Entry<String, String> e : index.prefix(prefix, Integer.MAX_VALUE)) {
+            ids.add(e.getKey().substring(prefix.length()));
+        }
+        return ids;
+    }
+
+    /** Returns the commits which have every one of the TERMS of kind KIND */
+    private TreeSet<String> intersect(String kind, List<String> terms) {
+        TreeSet<String> result = null;
+        for (String t : terms) {
+            TreeSet<String> ids = postings(kind, t);
+            if (result == null) {
+                result = ids;
+            } else {
+                result.retainAll(ids);
+            }
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return result == null ? new TreeSet<>() : result;
+    }
+
+    /** Returns the commits whose message is exactly MSG, in order of their ids */
+    public TreeSet<String> exact(String msg) {
+        return postings(EXACT, msg);
+    }
+
+    /** Returns the commits whose message contains every word of QUERY */
+    public TreeSet<String> containsTokens(String query) {
+        return intersect(TOKEN, tokens(query));
+    }
+
+    /** Returns the commits whose message contains QUERY, using G to check them */
+    public TreeSet<String> containsSubstring(String query, CommitGraph g) {
+        TreeSet<String> result = new TreeSet<>();
+        if (query.length() < 3) {
+            // Too short for a trigram, so every message has to be looked at
+            for (int i = 0; i < g.size(); ++i) {
+                if (g.message(i).contains(query)) {
+                    result.add(g.id(i));
+                }
+            }
+            return result;
+        }
+
+        for (String id : intersect(TRIGRAM, trigrams(query))) {
+            int pos = g.position(id);
+            if (pos != CommitGraph.NONE && g.message(pos).contains(query)) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+}
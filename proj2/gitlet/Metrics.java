@@ -0,0 +1,56 @@
+package gitlet;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Named counters collected while a command runs, such as cache hits and misses.
+ * They are printed to standard error when gitlet is run with --stats.
+ *
+ * @author Kheyanshu Garg
+ */
+public class Metrics {
+    private static final TreeMap<String, Long> COUNTERS = new TreeMap<>();
+    /** Shares printed after the counters, as the two counters they are made of */
+    private static final TreeMap<String, String[]> SHARES = new TreeMap<>();
+
+    /** Adds one to the counter NAME */
+    public static void count(String name) {
+        add(name, 1);
+    }
+
+    /** Adds N to the counter NAME */
+    public static synchronized void add(String name, long n) {
+        COUNTERS.merge(name, n, Long::sum);
+    }
+
+    public static synchronized long get(String name) {
+        return COUNTERS.getOrDefault(name, 0L);
+    }
+
+    /** Returns the names of the counters which were used, in order */
+    public static synchronized List<String> names() {
+        return new ArrayList<>(COUNTERS.keySet());
+    }
+
+    /** Prints NAME with the counters, as the share of PART in PART and REST */
+    public static synchronized void share(String name, String part, String rest) {
+        SHARES.put(name, new String[] {part, rest});
+    }
+
+    /** Prints every counter which was used, one per line, and then the shares */
+    public static synchronized void print(PrintStream out) {
+        for (Map.Entry<String, Long> i : COUNTERS.entrySet()) {
+            out.printf("%-32s %d%n", i.getKey(), i.getValue());
+        }
+        for (Map.Entry<String, String[]> i : SHARES.entrySet()) {
+            long part = get(i.getValue()[0]), whole = part + get(i.getValue()[1]);
+            if (whole > 0) {
+                out.printf("%-32s %.4f%n", i.getKey(), (double) part / whole);
+            }
+        }
+    }
+}
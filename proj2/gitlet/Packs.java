@@ -0,0 +1,760 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+import static gitlet.Utils.*;
+
+/**
+ * Pack files which hold many commits and objects in a single file.
+ *
+ * Every stored file of a repository (a commit, a blob, a chunk or a manifest) is
+ * named by its path inside .gitlet, for example "commits/[sha]". Readers ask for
+ * that file and get the loose copy if it exists, or the packed copy otherwise,
+ * so nothing else needs to know whether an object has been packed.
+ *
+ * A pack is written by "gitlet repack" as packs/pack-[sha].pack holding records
+ *   name length (int) | name (UTF-8) | data length (int) | data
+ * with an index packs/pack-[sha].idx of
+ *   MAGIC | VERSION | count | fan-out table of 256 ints | entries
+ * where every entry is the SHA-1 of the name (20 bytes), the offset of its record
+ * (long) and the length of the record (int). Entries are sorted by hash and the
+ * fan-out table holds the number of entries whose hash starts with a byte at
+ * most i, so a lookup is a binary search inside one slice of the memory-mapped
+ * index.
+ *
+ * Packs are mapped whole and their offsets read as ints, so a pack never grows
+ * past pack.maxSize, which is at most 2 GiB: writing starts another pack
+ * before a record would take it past the limit.
+ *
+ * @author Kheyanshu Garg
+ */
+public class Packs {
+    private static final int INDEX_MAGIC = 0x474c5049;
+    private static final int PACK_MAGIC = 0x474c504b;
+    private static final int VERSION = 1;
+    private static final int HASH_LENGTH = 20;
+    private static final int ENTRY_SIZE = HASH_LENGTH + 8 + 4;
+    private static final int FANOUT_OFFSET = 12;
+    private static final int ENTRIES_OFFSET = FANOUT_OFFSET + 256 * 4;
+    /** Directories of .gitlet whose files are packed */
+    private static final String[] PACKED_DIRS = {"commits", "objects"};
+
+    /** Packs of every .gitlet directory opened so far */
+    private static final HashMap<File, Packs> OPENED = new HashMap<>();
+
+    private final File gitletDir;
+    private final File packsDir;
+    private List<Pack> packs;
+
+    /** A single memory-mapped pack and its index */
+    private static class Pack {
+        final File packFile;
+        final MappedByteBuffer index;
+        final MappedByteBuffer data;
+        final int count;
+
+        Pack(File idxFile, File packFile) throws IOException {
+            if (packFile.length() > Integer.MAX_VALUE) {
+                throw new IOException(packFile.getName() + " is too large to map");
+            }
+            this.packFile = packFile;
+            index = map(idxFile);
+            data = map(packFile);
+            if (index.getInt(0) != INDEX_MAGIC || index.getInt(4) != VERSION
+                    || data.getInt(0) != PACK_MAGIC) {
+                throw new IOException("corrupted pack " + packFile.getName());
+            }
+            count = index.getInt(8);
+        }
+
+        private static MappedByteBuffer map(File f) throws IOException {
+            try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+                return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            }
+        }
+
+        /** Returns the offset of the record named NAME, or -1 */
+        long find(String name, byte[] hash) {
+            int first = hash[0] & 0xFF;
+            int lo = first == 0 ? 0 : index.getInt(FANOUT_OFFSET + (first - 1) * 4);
+            int hi = index.getInt(FANOUT_OFFSET + first * 4) - 1;
+
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int cmp = compareHash(ENTRIES_OFFSET + mid * ENTRY_SIZE, hash);
+
+                if (cmp < 0) {
+                    lo = mid + 1;
+                } else if (cmp > 0) {
+                    hi = mid - 1;
+                } else {
+                    long offset = index.getLong(ENTRIES_OFFSET + mid * ENTRY_SIZE + HASH_LENGTH);
+                    return name.equals(nameAt(offset)) ? offset : -1;
+                }
+            }
+            return -1;
+        }
+
+        private int compareHash(int at, byte[] hash) {
+            for (int i = 0; i < HASH_LENGTH; ++i) {
+                int cmp = Integer.compare(index.get(at + i) & 0xFF, hash[i] & 0xFF);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return 0;
+        }
+
+        String nameAt(long offset) {
+            int length = data.getInt((int) offset);
+            byte[] bytes = new byte[length];
+            data.get((int) offset + 4, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /** Returns the data of the record at OFFSET without copying it */
+        ByteBuffer dataAt(long offset) {
+            int at = (int) offset + 4 + data.getInt((int) offset);
+            int length = data.getInt(at);
+            return data.slice(at + 4, length);
+        }
+
+        /** Returns the offsets of all records in the order they were written */
+        long[] offsets() {
+            long[] result = new long[count];
+            for (int i = 0; i < count; ++i) {
+                result[i] = index.getLong(ENTRIES_OFFSET + i * ENTRY_SIZE + HASH_LENGTH);
+            }
+            Arrays.sort(result);
+            return result;
+        }
+    }
+
+    private Packs(File gitletDir) {
+        this.gitletDir = gitletDir;
+        this.packsDir = join(gitletDir, "packs");
+    }
+
+    /** Returns the packs of the given .gitlet directory */
+    public static synchronized Packs of(File gitletDir) {
+        return OPENED.computeIfAbsent(gitletDir.getAbsoluteFile(), Packs::new);
+    }
+
+    /** Returns the packs of the current repository */
+    public static Packs local() {
+        return of(Repository.GITLET_DIR);
+    }
+
+    private synchronized List<Pack> packs() {
+        if (packs == null) {
+            packs = new ArrayList<>();
+            List<String> names = plainFilenamesIn(packsDir);
+            if (names == null) {
+                return packs;
+            }
+
+            for (String i : names) {
+                if (!i.endsWith(".idx")) {
+                    continue;
+                }
+
+                String base = i.substring(0, i.length() - 4);
+                File packFile = join(packsDir, base + ".pack");
+                if (!packFile.exists()) {
+                    // Left behind by a crash while the pack was deleted
+                    continue;
+                }
+                try {
+                    packs.add(new Pack(join(packsDir, i), packFile));
+                } catch (IOException excp) {
+                    throw error("Could not open %s", base);
+                }
+            }
+        }
+        return packs;
+    }
+
+    /** Forgets the opened packs so that newly copied packs are seen */
+    public synchronized void refresh() {
+        packs = null;
+    }
+
+    /** Forgets the opened packs of every repository, as refresh does */
+    public static synchronized void refreshAll() {
+        for (Packs i : OPENED.values()) {
+            i.refresh();
+        }
+    }
+
+    /** Returns the name of F inside the .gitlet directory */
+    private String nameOf(File f) {
+        String rel = gitletDir.getAbsoluteFile().toPath()
+                .relativize(f.getAbsoluteFile().toPath()).toString();
+        return rel.replace(File.separatorChar, '/');
+    }
+
+    /** Returns the packed data of F, or null if F is not packed */
+    private ByteBuffer lookup(File f) {
+        String name = nameOf(f);
+        byte[] hash = hash(name);
+
+        for (Pack p : packs()) {
+            long offset = p.find(name, hash);
+            if (offset >= 0) {
+                return p.dataAt(offset);
+            }
+        }
+        return null;
+    }
+
+    private static byte[] hash(String name) {
+        try {
+            return MessageDigest.getInstance("SHA-1")
+                    .digest(name.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** True if F exists either loose or in a pack */
+    public boolean exists(File f) {
+        return f.isFile() || lookup(f) != null;
+    }
+
+    /**
+     * Returns the time F was last modified, which for a packed file is the
+     * time its pack was written, or 0 if it does not exist
+     */
+    public long lastModified(File f) {
+        if (f.isFile()) {
+            return f.lastModified();
+        }
+
+        String name = nameOf(f);
+        byte[] hash = hash(name);
+        for (Pack p : packs()) {
+            if (p.find(name, hash) >= 0) {
+                return p.packFile.lastModified();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Sets the time F was last modified to now, which for a packed file is
+     * the time of its pack, so that gc counts it as just written
+     */
+    public void touch(File f) {
+        long now = System.currentTimeMillis();
+        if (f.isFile()) {
+            f.setLastModified(now);
+            return;
+        }
+
+        String name = nameOf(f);
+        byte[] hash = hash(name);
+        for (Pack p : packs()) {
+            if (p.find(name, hash) >= 0) {
+                p.packFile.setLastModified(now);
+                return;
+            }
+        }
+    }
+
+    /** Returns the size of F, which may be packed, or -1 if it does not exist */
+    public long size(File f) {
+        if (f.isFile()) {
+            return f.length();
+        }
+
+        ByteBuffer buf = lookup(f);
+        return buf == null ? -1 : buf.remaining();
+    }
+
+    /**
+     * Returns the contents of F from the working copy or a pack.
+     * Throws IllegalArgumentException, as Utils.readContents does, if it does
+     * not exist.
+     */
+    public byte[] read(File f) {
+        if (f.isFile()) {
+            return readContents(f);
+        }
+
+        try (Trace.Span s = Trace.begin("read packed")) {
+            ByteBuffer buf = lookup(f);
+            if (buf == null) {
+                throw new IllegalArgumentException("must be a normal file");
+            }
+
+            byte[] bytes = new byte[buf.remaining()];
+            buf.get(bytes);
+            s.bytes(bytes.length);
+            return bytes;
+        }
+    }
+
+    /**
+     * Returns the contents of F, which may be packed, as a read-only buffer
+     * mapped from the file or pack instead of read into memory
+     */
+    public ByteBuffer map(File f) {
+        if (f.isFile()) {
+            try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+                return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            } catch (IOException excp) {
+                throw error("Could not read %s", f.getName());
+            }
+        }
+
+        ByteBuffer buf = lookup(f);
+        if (buf == null) {
+            throw new IllegalArgumentException("must be a normal file");
+        }
+        return buf;
+    }
+
+    /** Opens F, which may be packed, for reading */
+    public InputStream open(File f) throws IOException {
+        if (f.isFile()) {
+            return Files.newInputStream(f.toPath());
+        }
+
+        ByteBuffer buf = lookup(f);
+        if (buf == null) {
+            throw new IOException(f.getName() + " does not exist");
+        }
+        return new ByteBufferInputStream(buf);
+    }
+
+    /**
+     * Returns the names of the plain files in DIR, whether loose or packed,
+     * in lexicographic order.
+     */
+    public List<String> list(File dir) {
+        TreeSet<String> result = new TreeSet<>();
+        List<String> loose = plainFilenamesIn(dir);
+        if (loose != null) {
+            for (String i : loose) {
+                // Names starting with a dot are temporary files of atomic writes
+                if (!i.startsWith(".")) {
+                    result.add(i);
+                }
+            }
+        }
+
+        String prefix = nameOf(dir) + "/";
+        for (Pack p : packs()) {
+            for (long offset : p.offsets()) {
+                String name = p.nameAt(offset);
+                if (name.startsWith(prefix) && name.indexOf('/', prefix.length()) < 0) {
+                    result.add(name.substring(prefix.length()));
+                }
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Returns the names of every packed file */
+    public List<String> packedNames() {
+        List<String> result = new ArrayList<>();
+        for (Pack p : packs()) {
+            for (long offset : p.offsets()) {
+                result.add(p.nameAt(offset));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Moves every loose commit and object, together with the contents of the
+     * existing packs, into new packs of at most pack.maxSize bytes.
+     */
+    public void repack() {
+        List<File> loose = looseFiles();
+
+        if (loose.isEmpty() && packs().size() <= 1) {
+            System.out.println("Nothing to pack.");
+            return;
+        }
+
+        HashSet<String> written = new HashSet<>();
+        List<File> packFiles = writePacks(out -> {
+            for (File f : loose) {
+                String name = nameOf(f);
+                if (written.add(name)) {
+                    out.add(name, ByteBuffer.wrap(readContents(f)));
+                }
+            }
+
+            for (Pack p : packs()) {
+                for (long offset : p.offsets()) {
+                    String name = p.nameAt(offset);
+                    if (written.add(name)) {
+                        out.add(name, p.dataAt(offset));
+                    }
+                }
+            }
+        });
+
+        for (Pack p : packs()) {
+            if (!packFiles.contains(p.packFile)) {
+                delete(p);
+            }
+        }
+        for (File f : loose) {
+            f.delete();
+        }
+        for (String i : PACKED_DIRS) {
+            deleteEmptyDirs(join(gitletDir, i), true);
+        }
+
+        refresh();
+        System.out.println("Packed " + written.size() + " objects.");
+    }
+
+    /**
+     * Moves the loose files FILES, which must be commits or objects, into new
+     * packs, leaving the existing packs as they are, and returns how many
+     * were packed
+     */
+    public int packLoose(List<File> files) {
+        if (files.isEmpty()) {
+            return 0;
+        }
+
+        writePacks(out -> {
+            for (File f : files) {
+                out.add(nameOf(f), ByteBuffer.wrap(readContents(f)));
+            }
+        });
+        for (File f : files) {
+            f.delete();
+        }
+        for (String i : PACKED_DIRS) {
+            deleteEmptyDirs(join(gitletDir, i), true);
+        }
+
+        refresh();
+        return files.size();
+    }
+
+    /** Returns the loose commits and objects, which are not packed yet */
+    public List<File> looseFiles() {
+        List<File> loose = new ArrayList<>();
+        for (String i : PACKED_DIRS) {
+            collectLoose(join(gitletDir, i), loose);
+        }
+        return loose;
+    }
+
+    /**
+     * Rewrites every pack last modified before CUTOFF which holds records that
+     * LIVE rejects without them, and returns the number of records dropped.
+     * Newer packs are left alone, as their objects are still in their grace
+     * period.
+     */
+    public int prune(Predicate<String> live, long cutoff) {
+        int dropped = 0;
+        for (Pack p : new ArrayList<>(packs())) {
+            if (p.packFile.lastModified() >= cutoff) {
+                continue;
+            }
+
+            List<Long> kept = new ArrayList<>();
+            long[] offsets = p.offsets();
+            for (long offset : offsets) {
+                if (live.test(p.nameAt(offset))) {
+                    kept.add(offset);
+                }
+            }
+            if (kept.size() == offsets.length) {
+                continue;
+            }
+
+            if (!kept.isEmpty()) {
+                writePacks(out -> {
+                    for (long offset : kept) {
+                        out.add(p.nameAt(offset), p.dataAt(offset));
+                    }
+                });
+            }
+            delete(p);
+            dropped += offsets.length - kept.size();
+        }
+
+        refresh();
+        return dropped;
+    }
+
+    /** Writes the records of new packs with PackWriter.add */
+    private interface RecordWriter {
+        void write(PackWriter out) throws IOException;
+    }
+
+    /**
+     * Writes the records written by RECORDS into as many packs as the size
+     * limit needs, and returns the pack files. Every pack is forced to the
+     * disk and moved into place before its index, which is what makes the pack
+     * visible, and is then mapped and checked against what was written, so
+     * that the records are durable and readable before any caller deletes
+     * their sources.
+     */
+    private List<File> writePacks(RecordWriter records) {
+        packsDir.mkdir();
+        PackWriter out = new PackWriter(Config.packMaxBytes());
+        try {
+            records.write(out);
+            out.finish();
+        } catch (IOException excp) {
+            throw error("Could not write the pack: %s", excp.getMessage());
+        } finally {
+            out.abort();
+        }
+        syncDirectory(packsDir);
+        return out.written;
+    }
+
+    /** Writes records into packs, starting a new pack before one would exceed LIMIT */
+    private class PackWriter {
+        private final long limit;
+        private final File tmpPack = join(packsDir, "tmp.pack");
+        private final List<File> written = new ArrayList<>();
+        private FileOutputStream file;
+        private DataOutputStream out;
+        private MessageDigest md;
+        /** Bytes written to the current pack, which DataOutputStream.size cannot count past 2 GiB */
+        private long size;
+        private List<String> names;
+        private List<byte[]> hashes;
+        private List<long[]> entries;
+
+        PackWriter(long limit) {
+            this.limit = limit;
+        }
+
+        /** Writes the record NAME holding DATA */
+        void add(String name, ByteBuffer data) throws IOException {
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            long length = 4 + nameBytes.length + 4 + data.remaining();
+            if (4 + length > limit) {
+                throw new IOException(name + " is larger than a pack may be");
+            }
+            if (out != null && size + length > limit) {
+                finish();
+            }
+            if (out == null) {
+                start();
+            }
+
+            out.writeInt(nameBytes.length);
+            out.write(nameBytes);
+            out.writeInt(data.remaining());
+            if (data.hasArray()) {
+                out.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            } else {
+                byte[] bytes = new byte[data.remaining()];
+                data.get(bytes);
+                out.write(bytes);
+            }
+
+            names.add(name);
+            hashes.add(hash(name));
+            entries.add(new long[] {size, length});
+            size += length;
+        }
+
+        private void start() throws IOException {
+            try {
+                md = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException excp) {
+                throw new IllegalArgumentException("System does not support SHA-1");
+            }
+            file = new FileOutputStream(tmpPack);
+            out = new DataOutputStream(new DigestOutputStream(
+                    new BufferedOutputStream(file), md));
+            out.writeInt(PACK_MAGIC);
+            size = 4;
+            names = new ArrayList<>();
+            hashes = new ArrayList<>();
+            entries = new ArrayList<>();
+        }
+
+        /** Completes the current pack, if any, and checks that it reads back */
+        @SuppressWarnings("try")
+        void finish() throws IOException {
+            if (out == null) {
+                return;
+            }
+            out.flush();
+            file.getFD().sync();
+            out.close();
+            out = null;
+
+            String packName = "pack-" + toHex(md.digest());
+            File idxFile = join(packsDir, packName + ".idx");
+            File packFile = join(packsDir, packName + ".pack");
+
+            try (Trace.Span s = Trace.begin("move")) {
+                Files.move(tmpPack.toPath(), packFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            try {
+                writeDurable(idxFile, encodeIndex(hashes, entries));
+            } catch (IllegalArgumentException excp) {
+                throw new IOException("could not write " + idxFile.getName());
+            }
+
+            Pack p = new Pack(idxFile, packFile);
+            if (p.count != names.size()) {
+                throw new IOException(packName + " does not read back");
+            }
+            for (int i = 0; i < names.size(); ++i) {
+                if (p.find(names.get(i), hashes.get(i)) != entries.get(i)[0]) {
+                    throw new IOException(packName + " does not read back");
+                }
+            }
+            written.add(packFile);
+        }
+
+        /** Closes and deletes a pack left incomplete by an error */
+        void abort() {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException excp) {
+                    // The pack is being thrown away
+                }
+                out = null;
+                tmpPack.delete();
+            }
+        }
+    }
+
+    private void delete(Pack p) {
+        String base = p.packFile.getName().replace(".pack", "");
+        join(packsDir, base + ".idx").delete();
+        p.packFile.delete();
+    }
+
+    private static byte[] encodeIndex(List<byte[]> hashes, List<long[]> entries) {
+        Integer[] order = new Integer[hashes.size()];
+        for (int i = 0; i < order.length; ++i) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(hashes.get(a), hashes.get(b)));
+
+        int[] fanout = new int[256];
+        for (byte[] h : hashes) {
+            fanout[h[0] & 0xFF] += 1;
+        }
+        for (int i = 1; i < 256; ++i) {
+            fanout[i] += fanout[i - 1];
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(order.length);
+            for (int i : fanout) {
+                out.writeInt(i);
+            }
+            for (int i : order) {
+                out.write(hashes.get(i));
+                out.writeLong(entries.get(i)[0]);
+                out.writeInt((int) entries.get(i)[1]);
+            }
+        } catch (IOException excp) {
+            throw error("Could not write the pack index.");
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void collectLoose(File dir, List<File> result) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files);
+        for (File f : files) {
+            if (f.isDirectory()) {
+                collectLoose(f, result);
+            } else if (!f.getName().startsWith(".")) {
+                // Names starting with a dot are temporary files of atomic writes
+                result.add(f);
+            }
+        }
+    }
+
+    private static void deleteEmptyDirs(File dir, boolean keep) {
+        File[] files = dir.listFiles(File::isDirectory);
+        if (files == null) {
+            return;
+        }
+
+        for (File f : files) {
+            deleteEmptyDirs(f, false);
+        }
+        if (!keep) {
+            dir.delete();
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    /** Reads a packed object straight out of the mapped pack */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buf;
+
+        ByteBufferInputStream(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buf.hasRemaining()) {
+                return -1;
+            }
+
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/**
+ * Bloom filters of the paths changed by each commit of the commit graph, so
+ * that log -- PATH can pass over the commits which did not touch PATH without
+ * reading them or their trees.
+ *
+ * The filter of a commit holds every file whose blob differs from its first
+ * parent, and every directory above those files. It has 10 bits per path and
+ * 7 hash functions, for about one false positive in a hundred. A commit which
+ * changed more than MAX_PATHS paths gets a single byte of ones, which matches
+ * everything.
+ *
+ * The filters are appended to commit-paths, in the order of the graph, and
+ * commit-paths.idx holds a fixed size record for every position:
+ *   offset (long) | length (int) | first 8 hex digits of the commit id (int)
+ * The id only guards against a graph rebuilt by a gitlet which did not know
+ * about the filters; a filter whose id does not match is not used. Filters are
+ * built when they are first needed, for every commit added since.
+ *
+ * @author Kheyanshu Garg
+ */
+public class PathFilters {
+    private static final int BITS_PER_PATH = 10;
+    private static final int HASHES = 7;
+    private static final int MAX_PATHS = 512;
+    private static final int MIN_BITS = 64;
+    private static final int RECORD_SIZE = 8 + 4 + 4;
+
+    private final File gitletDir;
+    private final File dataFile;
+    private final File indexFile;
+
+    /** Both files as they were when last mapped */
+    private MappedByteBuffer data;
+    private MappedByteBuffer index;
+    /** Number of commits with a filter */
+    private int count;
+
+    public PathFilters(File gitletDir) {
+        this.gitletDir = gitletDir;
+        dataFile = join(gitletDir, "commit-paths");
+        indexFile = join(gitletDir, "commit-paths.idx");
+    }
+
+    /** Deletes every filter, as the positions of the graph are about to change */
+    public void clear() {
+        dataFile.delete();
+        indexFile.delete();
+        data = null;
+        index = null;
+        count = 0;
+    }
+
+    private static int fingerprint(String id) {
+        return Integer.parseUnsignedInt(id.substring(0, 8), 16);
+    }
+
+    private void map() {
+        if (!indexFile.exists() || !dataFile.exists()) {
+            count = 0;
+            return;
+        }
+        index = map(indexFile);
+        data = map(dataFile);
+        // A trailing partial record is what an interrupted append leaves behind
+        count = index.capacity() / RECORD_SIZE;
+    }
+
+    private static MappedByteBuffer map(File f) {
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } catch (IOException excp) {
+            throw error("Could not read %s", f.getName());
+        }
+    }
+
+    /** Builds the filters of the commits of G which do not have one yet */
+    public void update(CommitGraph g) {
+        map();
+        int last = (count - 1) * RECORD_SIZE;
+        if (count > g.size()
+                || (count > 0 && index.getInt(last + 12) != fingerprint(g.id(count - 1)))) {
+            RepoLock.of(gitletDir).lock();
+            clear();
+        }
+        if (count == g.size()) {
+            return;
+        }
+
+        RepoLock.of(gitletDir).lock();
+        long offset = dataFile.length();
+        try (FileOutputStream dataOut = new FileOutputStream(dataFile, true);
+             FileOutputStream indexOut = new FileOutputStream(indexFile, true)) {
+            // Drops a partial record, so that the new ones line up with the graph
+            indexOut.getChannel().truncate((long) count * RECORD_SIZE);
+            for (int pos = count; pos < g.size(); ++pos) {
+                byte[] filter = build(changedPaths(g, pos));
+                dataOut.write(filter);
+
+                ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+                record.putLong(offset).putInt(filter.length).putInt(fingerprint(g.id(pos)));
+                indexOut.write(record.array());
+                offset += filter.length;
+                Metrics.count("bloom.built");
+            }
+        } catch (IOException excp) {
+            throw error("Could not update %s", dataFile.getName());
+        }
+        map();
+    }
+
+    /** Returns the paths changed by the commit at POS in G since its first parent */
+    private static Set<String> changedPaths(CommitGraph g, int pos) {
+        Commit c = Commit.getCommit(g.id(pos));
+        int parent = g.parent(pos);
+        String before = parent == CommitGraph.NONE ? null
+                : Commit.getCommit(g.id(parent)).getTree();
+
+        Set<String> paths = new HashSet<>();
+        for (String i : Tree.diff(before, c.getTree()).keySet()) {
+            for (int slash = i.indexOf('/'); slash >= 0; slash = i.indexOf('/', slash + 1)) {
+                paths.add(i.substring(0, slash));
+            }
+            paths.add(i);
+        }
+        return paths;
+    }
+
+    private static byte[] build(Set<String> paths) {
+        if (paths.size() > MAX_PATHS) {
+            return new byte[] {-1};
+        } else if (paths.isEmpty()) {
+            return new byte[0];
+        }
+
+        byte[] filter = new byte[(Math.max(MIN_BITS, paths.size() * BITS_PER_PATH) + 7) / 8];
+        for (String i : paths) {
+            long h = hash(i);
+            for (int k = 0; k < HASHES; ++k) {
+                int bit = bit(h, k, filter.length * 8);
+                filter[bit >>> 3] |= 1 << (bit & 7);
+            }
+        }
+        return filter;
+    }
+
+    private static long hash(String path) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : path.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /** Returns the Kth bit of a filter of BITS bits to set for a path hashed to H */
+    private static int bit(long h, int k, int bits) {
+        int h1 = (int) h, h2 = (int) (h >>> 32) | 1;
+        return Math.floorMod(h1 + k * h2, bits);
+    }
+
+    /** False if the commit at POS in G certainly did not change PATH */
+    public boolean mayChange(CommitGraph g, int pos, String path) {
+        if (pos >= count) {
+            return true;
+        }
+
+        int record = pos * RECORD_SIZE;
+        if (index.getInt(record + 12) != fingerprint(g.id(pos))) {
+            return true;
+        }
+        int offset = (int) index.getLong(record);
+        int length = index.getInt(record + 8);
+        if (length == 0) {
+            return false;
+        }
+
+        long h = hash(path);
+        for (int k = 0; k < HASHES; ++k) {
+            int bit = bit(h, k, length * 8);
+            if ((data.get(offset + (bit >>> 3)) & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * True if the commit at POS in G changed the file or directory PATH since
+     * its first parent. Only commits the filter cannot rule out are read, and
+     * the counters of --stats record how often it could not and was wrong.
+     */
+    public boolean changed(CommitGraph g, int pos, String path) {
+        if (!mayChange(g, pos, path)) {
+            Metrics.count("bloom.definitelyNot");
+            return false;
+        }
+        Metrics.count("bloom.maybe");
+
+        Commit c = Commit.getCommit(g.id(pos));
+        int parent = g.parent(pos);
+        String before = parent == CommitGraph.NONE ? null
+                : Tree.entry(Commit.getCommit(g.id(parent)).getTree(), path);
+        boolean changed = !Objects.equals(before, Tree.entry(c.getTree(), path));
+        if (!changed) {
+            Metrics.count("bloom.falsePositive");
+        }
+        return changed;
+    }
+}
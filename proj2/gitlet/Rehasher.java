@@ -0,0 +1,106 @@
+package gitlet;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import static gitlet.Commit.COMMITS_DIR;
+import static gitlet.Repository.TEMP;
+import static gitlet.Utils.*;
+
+/**
+ * Renames every blob of the commits and of the stage to its sha with the hash
+ * the repository uses now, for "gitlet migrate".
+ *
+ * The trees listing the blobs are rewritten with the new shas, and so are the
+ * commits pointing to those trees. The id of a commit does not depend on its
+ * files, so commits keep their ids and no ref changes. A tree is rewritten only
+ * once however many commits share it, and the old blobs and trees are left
+ * behind for gc.
+ *
+ * @author Kheyanshu Garg
+ */
+public class Rehasher {
+    private final BlobStore blobs = BlobStore.local();
+    /** New sha of every blob rehashed so far, by old sha and path */
+    private final HashMap<String, String> blobShas = new HashMap<>();
+    /** New id of every tree rewritten so far, by old id and directory */
+    private final HashMap<String, String> treeIds = new HashMap<>();
+    private int staged;
+
+    private Rehasher() {
+    }
+
+    /** Rehashes the blobs of the current repository and returns how many */
+    public static int rehashAll() {
+        Rehasher r = new Rehasher();
+        r.commits();
+        r.stage();
+        return r.blobShas.size() + r.staged;
+    }
+
+    private void commits() {
+        for (String id : Packs.local().list(COMMITS_DIR)) {
+            File f = join(COMMITS_DIR, id);
+            Commit c = BinaryFormat.readCommit(Packs.local().read(f));
+            String tree = tree(c.getTree(), "");
+
+            if (!tree.equals(c.treeId())) {
+                BinaryFormat.writeCommit(f, new Commit(c.getTimestamp(), c.getParent(),
+                        c.getSecondParent(), c.getMsg(), tree));
+                Commit.forget(id);
+            }
+        }
+    }
+
+    /** Returns the id of the tree ID, the directory PREFIX, with its blobs rehashed */
+    private String tree(String id, String prefix) {
+        String key = id + prefix;
+        String done = treeIds.get(key);
+        if (done != null) {
+            return done;
+        }
+
+        HashMap<String, String> entries = Tree.read(id);
+        HashMap<String, String> rehashed = new HashMap<>();
+        for (Map.Entry<String, String> i : entries.entrySet()) {
+            String path = prefix + i.getKey();
+            rehashed.put(i.getKey(), Tree.isTree(path) ? tree(i.getValue(), path)
+                    : blob(i.getValue(), path));
+        }
+
+        String result = rehashed.equals(entries) ? id : Tree.write(rehashed);
+        treeIds.put(key, result);
+        return result;
+    }
+
+    private String blob(String sha, String path) {
+        if (BlobStore.isCurrent(sha)) {
+            return sha;
+        }
+        return blobShas.computeIfAbsent(sha + " " + path, k -> blobs.rehash(sha, path));
+    }
+
+    /** Renames the staged copies of files and rehashes the blobs of the next commit */
+    private void stage() {
+        Stage.loadFullStage();
+        for (Map.Entry<String, String> i : Stage.nextMap.entrySet()) {
+            String path = i.getKey(), sha = i.getValue();
+            File copy = join(TEMP, sha);
+
+            if (BlobStore.isCurrent(sha)) {
+                continue;
+            } else if (Stage.stageAdd.contains(path) && copy.isFile()) {
+                String newSha = BlobStore.id(copy, path);
+                if (!copy.renameTo(join(TEMP, newSha))) {
+                    throw error("Could not rehash %s", path);
+                }
+                i.setValue(newSha);
+                ++staged;
+            } else if (blobs.contains(sha)) {
+                i.setValue(blob(sha, path));
+            }
+        }
+        Stage.saveFullStage();
+    }
+}
@@ -0,0 +1,196 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/**
+ * A connection to a gitlet serve daemon, used for remotes of the form
+ * gitlet://host:port. The protocol is described in RemoteServer.
+ *
+ * Each transfer takes two round trips whatever the number of objects: one to
+ * agree on the objects that are missing and one which streams all of them.
+ *
+ * @author Kheyanshu Garg
+ */
+public class RemoteClient {
+    private final SocketChannel ch;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    /* Answer of the last call to list */
+    private String branchHead;
+    private String activeHead;
+    private List<String> heads;
+
+    private RemoteClient(SocketChannel ch) throws IOException {
+        this.ch = ch;
+        in = RemoteServer.input(ch);
+        out = RemoteServer.output(ch);
+        RemoteServer.handshake(in, out);
+    }
+
+    /** Connects to ADDRESS, which is host:port or just host */
+    public static RemoteClient connect(String address) {
+        int colon = address.lastIndexOf(':');
+        String host = colon < 0 ? address : address.substring(0, colon);
+        try {
+            int port = colon < 0 ? RemoteServer.DEFAULT_PORT
+                    : Integer.parseInt(address.substring(colon + 1));
+            return new RemoteClient(SocketChannel.open(new InetSocketAddress(host, port)));
+        } catch (IOException | IllegalArgumentException excp) {
+            throw error("Remote directory not found.");
+        }
+    }
+
+    private static GitletException lost() {
+        return error("Lost the connection to the remote.");
+    }
+
+    /** Asks for the heads of the remote, and of its branch BRANCH */
+    public void list(String branch) {
+        try {
+            out.writeByte(RemoteServer.LS);
+            out.writeUTF(branch);
+            out.flush();
+            branchHead = RemoteServer.readNullable(in);
+            activeHead = in.readUTF();
+            heads = RemoteServer.readNames(in);
+        } catch (IOException excp) {
+            throw lost();
+        }
+    }
+
+    /** Head of the branch given to list, or null if the remote does not have it */
+    public String branchHead() {
+        return branchHead;
+    }
+
+    /** Head of the active branch of the remote */
+    public String activeHead() {
+        return activeHead;
+    }
+
+    /**
+     * Sends the commit HEAD with whatever the remote lacks of it and points the
+     * remote's BRANCH to it if it still points to EXPECTED. Requires list.
+     */
+    public void push(String head, String branch, String expected) {
+        Transfer t = new Transfer(Repository.GITLET_DIR,
+                RemoteServer.knownCommits(CommitGraph.local(), heads));
+        List<String> names = t.missing(head);
+
+        try {
+            out.writeByte(RemoteServer.HAS);
+            RemoteServer.writeNames(out, names);
+            out.flush();
+
+            List<String> needed = new ArrayList<>();
+            for (String name : names) {
+                if (!in.readBoolean()) {
+                    needed.add(name);
+                }
+            }
+
+            out.writeByte(RemoteServer.PUT);
+            out.writeInt(needed.size());
+            long bytes = 0;
+            for (String name : needed) {
+                bytes += RemoteServer.send(out, Packs.local(), Repository.GITLET_DIR, name);
+            }
+            out.flush();
+            in.readInt();
+            Metrics.add("transfer.objects", needed.size());
+            Metrics.add("transfer.bytes", bytes);
+
+            // The branch moves only once everything it points to has arrived
+            out.writeByte(RemoteServer.UPDATE);
+            out.writeUTF(branch);
+            RemoteServer.writeNullable(out, expected);
+            out.writeUTF(head);
+            out.flush();
+            String refused = RemoteServer.readNullable(in);
+            if (refused != null) {
+                throw error("%s", refused);
+            }
+        } catch (IOException excp) {
+            throw lost();
+        }
+    }
+
+    /** Copies the commit WANT and whatever this repository lacks of it */
+    public void fetch(String want) {
+        Packs packs = Packs.local();
+        try {
+            out.writeByte(RemoteServer.FETCH);
+            out.writeUTF(want);
+            RemoteServer.writeNames(out, localHeads());
+            out.flush();
+
+            List<String> names = RemoteServer.readNames(in);
+            Set<String> needed = new HashSet<>();
+            for (String name : names) {
+                boolean has = packs.exists(join(Repository.GITLET_DIR,
+                        RemoteServer.checkObjectName(name)));
+                out.writeBoolean(!has);
+                if (!has) {
+                    needed.add(name);
+                }
+            }
+            out.flush();
+
+            // Only the objects asked for are accepted, whatever the server sends
+            int count = needed.size();
+            long bytes = 0;
+            for (int i = 0; i < count; ++i) {
+                bytes += RemoteServer.receive(in, Repository.GITLET_DIR, needed);
+            }
+            packs.refresh();
+            Metrics.add("transfer.objects", count);
+            Metrics.add("transfer.bytes", bytes);
+        } catch (IOException excp) {
+            throw lost();
+        }
+    }
+
+    /** Returns the heads of every branch here, including remote branches */
+    private static List<String> localHeads() {
+        List<String> result = new ArrayList<>();
+        addHeads(Branch.LAST_COMMIT, result);
+        return result;
+    }
+
+    private static void addHeads(File dir, List<String> result) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (f.isDirectory()) {
+                addHeads(f, result);
+            } else if (!f.getName().startsWith(".")) {
+                result.add(BinaryFormat.readRef(f));
+            }
+        }
+    }
+
+    /** Ends the connection */
+    public void close() {
+        try {
+            out.writeByte(RemoteServer.BYE);
+            out.flush();
+            ch.close();
+        } catch (IOException ignored) {
+            // The server cleans up after clients which vanish
+        }
+    }
+}
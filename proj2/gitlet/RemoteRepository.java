@@ -3,9 +3,6 @@ package gitlet;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
-import java.util.HashSet;
 import java.util.List;
 
 import static gitlet.Utils.*;
@@ -13,6 +10,8 @@ import static gitlet.Commit.*;
 
 public class RemoteRepository extends Repository implements Serializable {
     public static final File REMOTE = Utils.join(Repository.GITLET_DIR, "remote");
+    /** What a path to a gitlet serve daemon starts with once it is a File */
+    private static final String URL_PREFIX = "gitlet:/";
 
     private String myName;
     private final File MY_LOCATION;
@@ -27,6 +26,10 @@ public class RemoteRepository extends Repository implements Serializable {
      * @return file pointer of the path
      */
     private File fileToRemote(String givenPath) {
+        if (givenPath.startsWith(URL_PREFIX)) {
+            return new File(givenPath);
+        }
+
         try {
             File f = join(Repository.CWD, givenPath);
             return new File(f.getCanonicalPath());
@@ -39,8 +42,7 @@ public class RemoteRepository extends Repository implements Serializable {
         File remoteInfo = join(REMOTE, remoteName);
 
         if (remoteInfo.exists()) {
-            System.out.println("A remote with that name already exists.");
-            System.exit(0);
+            throw error("A remote with that name already exists.");
         }
 
         myName = remoteName;
@@ -54,8 +56,7 @@ public class RemoteRepository extends Repository implements Serializable {
 
     public static void removeRemote(String remoteName) {
         if (!join(REMOTE, remoteName).delete()) {
-            System.out.println("A remote with that name does not exist.");
-            System.exit(0);
+            throw error("A remote with that name does not exist.");
         }
 
         File deleteRemote = join(Branch.LAST_COMMIT, remoteName);
@@ -80,125 +81,118 @@ public class RemoteRepository extends Repository implements Serializable {
         File remoteInfo = join(REMOTE, remoteName);
 
         if (!remoteInfo.exists()) {
-            System.out.println("A remote with that name does not exist.");
-            System.exit(0);
+            throw error("A remote with that name does not exist.");
         }
 
         RemoteRepository remoteDir = readObject(remoteInfo, RemoteRepository.class);
 
-        if (!remoteDir.MY_LOCATION.exists()) {
-            System.out.println("Remote directory not found.");
-            System.exit(0);
+        if (remoteDir.address() == null && !remoteDir.MY_LOCATION.exists()) {
+            throw error("Remote directory not found.");
         }
 
         return remoteDir;
     }
 
+    /**
+     * Returns the host:port of a remote of the form gitlet://host:port, or null
+     * for a remote which is a directory
+     */
+    private String address() {
+        String path = MY_LOCATION.getPath();
+        if (!path.startsWith(URL_PREFIX)) {
+            return null;
+        }
+        // File turns the two slashes after gitlet: into one
+        return path.substring(URL_PREFIX.length()).replaceFirst("^/+", "");
+    }
+
     private String getRemoteActiveBranch() {
-        return readObject(HEAD, String.class);
+        return BinaryFormat.readRef(HEAD);
     }
 
     private String getRemoteHead() {
-        return readObject(join(LAST_COMMIT, getRemoteActiveBranch()), String.class);
+        return BinaryFormat.readRef(join(LAST_COMMIT, getRemoteActiveBranch()));
     }
 
     /**
-     * Returns a set of all commits in active branch
+     * Exits unless the head of the remote's active branch is in the history of
+     * the local head, so that pushing would not lose remote commits
      */
-    private HashSet<String> getAllCommits(boolean copy, String remoteBranchName) {
-        String remoteHeadSha = getRemoteHead();
-        String myHeadSha = Branch.getHeadActive();
-        Commit c = getCommit(myHeadSha);
-
-        String temp = myHeadSha;
-
-        HashSet<String> hs = new HashSet<>();
-        boolean found = false;
-
-        while (c != null) {
-            if (remoteHeadSha.equals(myHeadSha)) {
-                found = true;
-                break;
+    private void checkPushable(String remoteHeadSha) {
+        for (String i = Branch.getHeadActive(); i != null; i = getCommit(i).getParent()) {
+            if (i.equals(remoteHeadSha)) {
+                return;
             }
-
-            if (copy) {
-                File f = join(COMMITS_DIR, myHeadSha);
-
-                if (f.exists()) {
-                    break;
-                }
-                writeObject(f, c);
-            } else {
-                hs.add(myHeadSha);
-            }
-
-            myHeadSha = c.getParent();
-            c = getCommit(myHeadSha);
         }
 
-        if (!found && !copy) {
-            System.out.println("Please pull down remote changes before pushing.");
-            System.exit(0);
-        }
-
-        writeObject(join(LAST_COMMIT, remoteBranchName), temp);
-        return hs;
+        throw error("Please pull down remote changes before pushing.");
     }
 
-    private void copyEverything(File src, File dest) {
-        dest.mkdir();
-        String[] files = src.list();
+    public void push(String remoteBranchName) {
+        if (address() != null) {
+            pushToServer(remoteBranchName);
+            return;
+        }
 
-        for (String i : files) {
-            File srcF = join(src, i);
-            File destF = join(dest, i);
+        RepoLock.of(MY_LOCATION).lock();
+        File remoteInfo = join(LAST_COMMIT, remoteBranchName);
+        String oldHead = remoteInfo.exists() ? BinaryFormat.readRef(remoteInfo) : null;
 
-            if (srcF.isDirectory()) {
-                copyEverything(srcF, destF);
-            } else if (!destF.exists()) {
-                writeContents(destF, (Object) readContents(srcF));
-            }
+        if (remoteInfo.exists()) {
+            checkPushable(getRemoteHead());
         }
-    }
 
-    public void push(String remoteBranchName) {
-        File remoteInfo = join(LAST_COMMIT, remoteBranchName);
+        String head = Branch.getHeadActive();
+        Transfer.copy(Repository.GITLET_DIR, MY_LOCATION, head);
+        new CommitGraph(MY_LOCATION).ensure(head);
 
-        if (!remoteInfo.exists()) {
-            getAllCommits(true, remoteBranchName);
-        } else {
-            HashSet<String> hs = getAllCommits(false, remoteBranchName);
+        // The branch moves only once everything it points to has been copied
+        Branch.compareAndSetRef(MY_LOCATION, remoteInfo, oldHead, head);
+    }
 
-            for (String i : hs) {
-                writeObject(join(COMMITS_DIR, i), Commit.getCommit(i));
-            }
+    private void pushToServer(String remoteBranchName) {
+        RemoteClient client = RemoteClient.connect(address());
+        client.list(remoteBranchName);
+        if (client.branchHead() != null) {
+            checkPushable(client.activeHead());
         }
 
-        copyEverything(Repository.OBJECTS_DIR, this.OBJECTS_DIR);
+        client.push(Branch.getHeadActive(), remoteBranchName, client.branchHead());
+        client.close();
     }
 
-
     public void fetch(String remoteBranchName) {
-        File f = join(LAST_COMMIT, remoteBranchName);
+        String head;
+        if (address() != null) {
+            head = fetchFromServer(remoteBranchName);
+        } else {
+            File f = join(LAST_COMMIT, remoteBranchName);
+            if (!f.exists()) {
+                throw error("That remote does not have that branch.");
+            }
+            RepoLock.of(MY_LOCATION).lock();
 
-        if (!f.exists()) {
-            System.out.println("That remote does not have that branch.");
-            System.exit(0);
+            head = BinaryFormat.readRef(f);
+            Transfer.copy(MY_LOCATION, Repository.GITLET_DIR, head);
         }
+        CommitGraph.local().ensure(head);
 
-        copyEverything(COMMITS_DIR, Commit.COMMITS_DIR);
-        copyEverything(OBJECTS_DIR, Repository.OBJECTS_DIR);
-
-        String newBranchName = myName + "/" + remoteBranchName;
         File remoteBranchDir = join(Branch.LAST_COMMIT, myName);
         remoteBranchDir.mkdir();
-        try {
-            Files.copy(LAST_COMMIT.toPath().resolve(remoteBranchName),
-                    Branch.LAST_COMMIT.toPath().resolve(newBranchName),
-                    StandardCopyOption.REPLACE_EXISTING);
-        } catch (IOException ignored) {
-            return;
+        BinaryFormat.writeRef(join(remoteBranchDir, remoteBranchName), head);
+    }
+
+    private String fetchFromServer(String remoteBranchName) {
+        RemoteClient client = RemoteClient.connect(address());
+        client.list(remoteBranchName);
+        String head = client.branchHead();
+        if (head == null) {
+            throw error("That remote does not have that branch.");
         }
+
+        client.fetch(head);
+        client.close();
+        return head;
     }
 
     public void pull(String remoteBranchName) {
@@ -0,0 +1,451 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+
+import static gitlet.Utils.*;
+
+/**
+ * The gitlet serve daemon, which lets other repositories push to and fetch from
+ * this one over a socket, as the remote gitlet://host:port.
+ *
+ * Every connection starts with MAGIC and VERSION from both sides and then
+ * carries requests, each a one byte code followed by its operands:
+ *   LS branch              head of the branch or nothing, head of the active
+ *                          branch and the heads of every branch
+ *   FETCH want haves       names of the objects the client may lack, which the
+ *                          client answers with one byte per name, after which
+ *                          the objects it asked for are streamed back
+ *   HAS names              one byte per name, 1 if this repository has it
+ *   PUT objects            stores the objects and answers with their number;
+ *                          only objects a HAS of the connection found missing
+ *                          are accepted
+ *   UPDATE branch old new  moves the branch from old to new, answering with
+ *                          nothing or the reason it was refused
+ *   BYE                    ends the connection
+ * Strings are written with writeUTF and may be preceded by a boolean when they
+ * can be missing. An object is its name, its length as a long and its bytes.
+ *
+ * Only commits and objects are ever transferred, and each side only writes the
+ * objects it agreed to receive, so a peer can never replace a ref, the config
+ * or any other file of the repository.
+ *
+ * HAS and PUT run without the repository lock, so gc may run in between. HAS
+ * therefore touches the objects it reports, which keeps them within the grace
+ * period of gc, and UPDATE checks under the lock that the new commit is
+ * complete before it moves the branch.
+ *
+ * Neither side waits for an answer between objects, so a whole batch is in
+ * flight at once, and object bodies are copied through a small buffer rather
+ * than read into memory. Objects are sent in the order Transfer lists them, so
+ * a connection which drops leaves no commit with missing objects behind.
+ *
+ * @author Kheyanshu Garg
+ */
+public class RemoteServer {
+    static final int MAGIC = 0x474c5750;
+    static final int VERSION = 1;
+    static final int DEFAULT_PORT = 9419;
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    static final byte BYE = 0;
+    static final byte LS = 1;
+    static final byte FETCH = 2;
+    static final byte HAS = 3;
+    static final byte PUT = 4;
+    static final byte UPDATE = 5;
+
+    private final File gitletDir;
+    private final Packs packs;
+
+    private RemoteServer(File gitletDir) {
+        this.gitletDir = gitletDir;
+        packs = Packs.of(gitletDir);
+    }
+
+    /** Serves the current repository on PORT until the process is killed */
+    public static void serve(int port) {
+        RemoteServer server = new RemoteServer(Repository.GITLET_DIR);
+        ExecutorService workers = Executors.newCachedThreadPool();
+
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress(port));
+            System.out.println("Serving " + Repository.CWD.getPath() + " on port "
+                    + port + ".");
+
+            while (true) {
+                SocketChannel ch = listener.accept();
+                workers.execute(() -> server.handle(ch));
+            }
+        } catch (IOException excp) {
+            throw error("Could not serve on port %d: %s", port, excp.getMessage());
+        }
+    }
+
+    /** Answers the requests of one connection until the client leaves */
+    private void handle(SocketChannel ch) {
+        try (ch) {
+            DataInputStream in = input(ch);
+            DataOutputStream out = output(ch);
+            handshake(in, out);
+            // The objects this side said it lacks, which PUT may then store
+            Set<String> lacking = new HashSet<>();
+
+            for (byte op = in.readByte(); op != BYE; op = in.readByte()) {
+                switch (op) {
+                    case LS:
+                        list(in, out);
+                        break;
+                    case FETCH:
+                        fetch(in, out);
+                        break;
+                    case HAS:
+                        has(in, out, lacking);
+                        break;
+                    case PUT:
+                        out.writeInt(receiveAll(in, gitletDir, lacking));
+                        packs.refresh();
+                        break;
+                    case UPDATE:
+                        update(in, out);
+                        break;
+                    default:
+                        throw new IOException("unknown request " + op);
+                }
+                out.flush();
+            }
+        } catch (EOFException excp) {
+            // The client went away without saying bye
+        } catch (IOException | RuntimeException excp) {
+            System.err.println("Connection failed: " + excp.getMessage());
+        }
+    }
+
+    static DataInputStream input(SocketChannel ch) {
+        return new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch),
+                BUFFER_SIZE));
+    }
+
+    static DataOutputStream output(SocketChannel ch) {
+        return new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(ch),
+                BUFFER_SIZE));
+    }
+
+    /** Exchanges MAGIC and VERSION with the other side */
+    static void handshake(DataInputStream in, DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.flush();
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("not a gitlet peer of version " + VERSION);
+        }
+    }
+
+    /**
+     * Reopens whatever other commands may have changed since the last request
+     * and returns the commit graph. Must be called with the server locked.
+     */
+    private CommitGraph refresh() {
+        packs.refresh();
+        SortedIndex.reloadAll();
+        return new CommitGraph(gitletDir);
+    }
+
+    private File refsDir() {
+        return join(gitletDir, "lastCommit");
+    }
+
+    private void list(DataInputStream in, DataOutputStream out) throws IOException {
+        File ref = join(refsDir(), checkName(in.readUTF()));
+        writeNullable(out, ref.exists() ? BinaryFormat.readRef(ref) : null);
+
+        String active = BinaryFormat.readRef(join(gitletDir, "HEAD"));
+        out.writeUTF(BinaryFormat.readRef(join(refsDir(), active)));
+
+        writeNames(out, heads());
+    }
+
+    /** Returns the heads of every branch */
+    private List<String> heads() {
+        List<String> heads = new ArrayList<>();
+        for (String i : plainFilenamesIn(refsDir())) {
+            if (!i.startsWith(".")) {
+                heads.add(BinaryFormat.readRef(join(refsDir(), i)));
+            }
+        }
+        return heads;
+    }
+
+    private void fetch(DataInputStream in, DataOutputStream out) throws IOException {
+        String want = in.readUTF();
+        List<String> haves = readNames(in);
+
+        List<String> names;
+        synchronized (this) {
+            RepoLock lock = RepoLock.of(gitletDir);
+            try {
+                lock.lock();
+                CommitGraph g = refresh();
+                names = new Transfer(gitletDir, knownCommits(g, haves)).missing(want);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        writeNames(out, names);
+        out.flush();
+
+        // The client's answers arrive as one batch and the objects go back as one
+        byte[] needed = new byte[names.size()];
+        in.readFully(needed);
+        for (int i = 0; i < names.size(); ++i) {
+            if (needed[i] != 0) {
+                send(out, packs, gitletDir, names.get(i));
+            }
+        }
+    }
+
+    /** Answers which of the objects named by IN exist, adding the others to LACKING */
+    private void has(DataInputStream in, DataOutputStream out, Set<String> lacking)
+            throws IOException {
+        packs.refresh();
+        for (String name : readNames(in)) {
+            File f = join(gitletDir, checkObjectName(name));
+            boolean has = packs.exists(f);
+            if (has) {
+                // The client will not send it, so gc must keep it for a while
+                packs.touch(f);
+            } else {
+                lacking.add(name);
+            }
+            out.writeBoolean(has);
+        }
+    }
+
+    private void update(DataInputStream in, DataOutputStream out) throws IOException {
+        File ref = join(refsDir(), checkName(in.readUTF()));
+        String expected = readNullable(in);
+        String value = in.readUTF();
+
+        synchronized (this) {
+            RepoLock lock = RepoLock.of(gitletDir);
+            try {
+                lock.lock();
+                CommitGraph g = refresh();
+                String current = ref.exists() ? BinaryFormat.readRef(ref) : null;
+
+                if (!complete(g, value)) {
+                    writeNullable(out, "The remote is missing objects of the pushed commit.");
+                } else if (!Objects.equals(current, expected)) {
+                    writeNullable(out, "The branch was moved by another command; try again.");
+                } else {
+                    g.ensure(value);
+                    BinaryFormat.writeRef(ref, value);
+                    writeNullable(out, null);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * True if this repository has the commit VALUE and everything it refers
+     * to, down to the commits reachable from a branch. An object HAS reported
+     * could have been deleted by gc since, so this is checked again before a
+     * branch is moved. Must be called with the server locked.
+     */
+    private boolean complete(CommitGraph g, String value) {
+        try {
+            for (String name : new Transfer(gitletDir, knownCommits(g, heads())).missing(value)) {
+                if (!packs.exists(join(gitletDir, name))) {
+                    return false;
+                }
+            }
+        } catch (IllegalArgumentException | GitletException excp) {
+            // A commit or tree which is needed to look further is missing
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns a predicate which accepts the names of the commits in G which
+     * are reachable from HEADS. Heads which are not in G are ignored.
+     */
+    static Predicate<String> knownCommits(CommitGraph g, List<String> heads) {
+        BitSet seen = new BitSet();
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        for (String h : heads) {
+            int pos = g.position(h);
+            if (pos != CommitGraph.NONE && !seen.get(pos)) {
+                seen.set(pos);
+                stack.push(pos);
+            }
+        }
+
+        while (!stack.isEmpty()) {
+            int pos = stack.pop();
+            for (int p : new int[] {g.parent(pos), g.secondParent(pos)}) {
+                if (p != CommitGraph.NONE && !seen.get(p)) {
+                    seen.set(p);
+                    stack.push(p);
+                }
+            }
+        }
+
+        return name -> {
+            if (!name.startsWith("commits/")) {
+                return false;
+            }
+            int pos = g.position(name.substring("commits/".length()));
+            return pos != CommitGraph.NONE && seen.get(pos);
+        };
+    }
+
+    /**
+     * Returns NAME if it names a commit or an object, the only files a
+     * transfer may write, and throws otherwise
+     */
+    static String checkObjectName(String name) {
+        checkName(name);
+        if (!name.matches("commits/[0-9a-f]{40}")
+                && !name.matches("objects(/[A-Za-z0-9_-][A-Za-z0-9_.-]*)+")) {
+            throw error("Bad object name %s", name);
+        }
+        return name;
+    }
+
+    /** Returns NAME if it is a relative name inside .gitlet and throws otherwise */
+    static String checkName(String name) {
+        if (name.isEmpty() || name.startsWith("/") || name.contains("..")
+                || !name.matches("[A-Za-z0-9_./-]+")) {
+            throw error("Bad object name %s", name);
+        }
+        return name;
+    }
+
+    static void writeNullable(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    static void writeNames(DataOutputStream out, List<String> names) throws IOException {
+        out.writeInt(names.size());
+        for (String i : names) {
+            out.writeUTF(i);
+        }
+    }
+
+    static List<String> readNames(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        List<String> names = new ArrayList<>(Math.min(n, 1 << 16));
+        for (int i = 0; i < n; ++i) {
+            names.add(in.readUTF());
+        }
+        return names;
+    }
+
+    /** Writes the object NAME of the repository GITLETDIR, streaming its body */
+    static long send(DataOutputStream out, Packs packs, File gitletDir, String name)
+            throws IOException {
+        File f = join(gitletDir, name);
+        long length = packs.size(f);
+        out.writeUTF(name);
+        out.writeLong(length);
+        try (InputStream body = packs.open(f)) {
+            copy(body, out, length);
+        }
+        return length;
+    }
+
+    /**
+     * Reads a count and that many objects into the repository GITLETDIR,
+     * each one saved by an atomic rename once it has fully arrived
+     */
+    static int receiveAll(DataInputStream in, File gitletDir, Set<String> expected)
+            throws IOException {
+        int n = in.readInt();
+        for (int i = 0; i < n; ++i) {
+            receive(in, gitletDir, expected);
+        }
+        return n;
+    }
+
+    /**
+     * Reads one object into the repository GITLETDIR and returns its length.
+     * The object must be one of EXPECTED, from which it is removed.
+     */
+    @SuppressWarnings("try")
+    static long receive(DataInputStream in, File gitletDir, Set<String> expected)
+            throws IOException {
+        String name = in.readUTF();
+        if (!expected.remove(name)) {
+            throw new IOException("unexpected object " + name);
+        }
+        File dest = join(gitletDir, checkObjectName(name));
+        long length = in.readLong();
+
+        dest.getParentFile().mkdirs();
+        Path tmp = Files.createTempFile(dest.getParentFile().toPath(),
+                "." + dest.getName(), ".tmp");
+        try {
+            try (Trace.Span s = Trace.begin("receive");
+                 OutputStream body = Files.newOutputStream(tmp)) {
+                s.bytes(length);
+                copy(in, body, length);
+            }
+            try (Trace.Span s = Trace.begin("move")) {
+                Files.move(tmp, dest.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return length;
+    }
+
+    /** Copies exactly LENGTH bytes from IN to OUT */
+    private static void copy(InputStream in, OutputStream out, long length)
+            throws IOException {
+        byte[] buf = new byte[(int) Math.min(BUFFER_SIZE, Math.max(length, 1))];
+        while (length > 0) {
+            int n = in.read(buf, 0, (int) Math.min(buf.length, length));
+            if (n < 0) {
+                throw new EOFException();
+            }
+            out.write(buf, 0, n);
+            length -= n;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Times pushing to and pulling from a gitlet serve daemon on localhost, and
+ *  checks that what arrives is complete, also after a gc on the server.
+ *  Every command runs as its own gitlet process, as it would be used.
+ *  Usage: java gitlet.RemoteSpeedTest [NUMBER_OF_FILES]
+ *  @author Kheyanshu Garg
+ */
+public class RemoteSpeedTest {
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        File root = Files.createTempDirectory("gitlet-remote").toFile();
+        File server = new File(root, "server");
+        File client = new File(root, "client");
+        server.mkdir();
+        client.mkdir();
+
+        int port;
+        try (ServerSocket s = new ServerSocket(0)) {
+            port = s.getLocalPort();
+        }
+
+        Process daemon = null;
+        try {
+            gitlet(server, "init");
+            writeFiles(server, "s", n);
+            gitlet(server, "commit", "server files");
+
+            daemon = start(server, "serve", Integer.toString(port));
+            BufferedReader out = new BufferedReader(new InputStreamReader(
+                    daemon.getInputStream(), StandardCharsets.UTF_8));
+            String line = out.readLine();
+            if (line == null || !line.startsWith("Serving")) {
+                throw new AssertionError("serve printed " + line);
+            }
+
+            gitlet(client, "init");
+            gitlet(client, "add-remote", "origin", "gitlet://localhost:" + port);
+            long start = System.nanoTime();
+            gitlet(client, "pull", "origin", "master");
+            System.out.printf("Pulling %d files: %.1f ms%n", n, (System.nanoTime() - start) / 1e6);
+            check(client, "s", n);
+
+            writeFiles(client, "c", n);
+            gitlet(client, "commit", "client files");
+            start = System.nanoTime();
+            gitlet(client, "push", "origin", "master");
+            System.out.printf("Pushing %d files: %.1f ms%n", n, (System.nanoTime() - start) / 1e6);
+
+            // Objects the server reported having must survive a gc
+            gitlet(server, "config", "gc.gracePeriod", "0");
+            gitlet(server, "gc");
+            writeFiles(client, "e", 1);
+            gitlet(client, "commit", "before gc --incremental");
+            gitlet(client, "push", "origin", "master");
+            gitlet(server, "gc", "--incremental");
+            writeFiles(client, "d", 1);
+            gitlet(client, "commit", "after gc");
+            gitlet(client, "push", "origin", "master");
+
+            for (File f : server.listFiles(File::isFile)) {
+                f.delete();
+            }
+            String head = gitlet(server, "log").split("\n")[1].substring("commit ".length());
+            gitlet(server, "reset", head);
+            check(server, "s", n);
+            check(server, "c", n);
+            check(server, "d", 1);
+            check(server, "e", 1);
+            System.out.println("Pushed and pulled files are complete.");
+        } finally {
+            if (daemon != null) {
+                daemon.destroy();
+                daemon.waitFor();
+            }
+            delete(root);
+        }
+    }
+
+    private static void writeFiles(File dir, String prefix, int n)
+            throws IOException, InterruptedException {
+        for (int i = 0; i < n; ++i) {
+            String name = prefix + i + ".txt";
+            Utils.writeContents(new File(dir, name), prefix + " file " + i + "\n");
+            gitlet(dir, "add", name);
+        }
+    }
+
+    private static void check(File dir, String prefix, int n) {
+        for (int i = 0; i < n; ++i) {
+            File f = new File(dir, prefix + i + ".txt");
+            if (!f.isFile() || !Utils.readContentsAsString(f).equals(prefix + " file " + i + "\n")) {
+                throw new AssertionError(f + " did not arrive");
+            }
+        }
+    }
+
+    private static Process start(File dir, String... args) throws IOException {
+        List<String> command = new ArrayList<>(List.of(
+                ProcessHandle.current().info().command().orElse("java"),
+                "-cp", System.getProperty("java.class.path"), "gitlet.Main"));
+        command.addAll(Arrays.asList(args));
+        return new ProcessBuilder(command).directory(dir).redirectErrorStream(true).start();
+    }
+
+    /** Runs gitlet with ARGS in DIR and returns what it printed */
+    private static String gitlet(File dir, String... args)
+            throws IOException, InterruptedException {
+        Process p = start(dir, args);
+        p.getOutputStream().close();
+        String output = new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        p.waitFor();
+        return output;
+    }
+
+    private static void delete(File f) {
+        File[] files = f.listFiles();
+        if (files != null) {
+            for (File i : files) {
+                delete(i);
+            }
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,86 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * The lock of a repository, an exclusive FileChannel lock on .gitlet/lock.
+ *
+ * Every command which changes a repository takes its lock first and keeps it
+ * until it exits, so two writers never interleave. Commands which only read,
+ * such as log and status, do not take it. Files they read are always replaced
+ * by an atomic rename, never rewritten in place, so they see either the old or
+ * the new contents of each file.
+ *
+ * @author Kheyanshu Garg
+ */
+public class RepoLock {
+    /** Locks of the repositories used so far, by .gitlet directory */
+    private static final HashMap<File, RepoLock> OPENED = new HashMap<>();
+
+    private final File lockFile;
+    private FileChannel channel;
+    private FileLock lock;
+
+    private RepoLock(File gitletDir) {
+        lockFile = join(gitletDir, "lock");
+    }
+
+    /** Returns the lock of the repository in GITLETDIR */
+    public static synchronized RepoLock of(File gitletDir) {
+        return OPENED.computeIfAbsent(gitletDir.getAbsoluteFile(), RepoLock::new);
+    }
+
+    /** Returns the lock of the current repository */
+    public static RepoLock local() {
+        return of(Repository.GITLET_DIR);
+    }
+
+    /** Waits until this process holds the lock. Does nothing if it already does. */
+    public synchronized void lock() {
+        if (lock != null) {
+            return;
+        }
+
+        try {
+            channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE);
+            lock = channel.lock();
+        } catch (IOException excp) {
+            throw error("Could not lock the repository: %s", excp.getMessage());
+        }
+    }
+
+    /** Releases the locks of every repository this process holds */
+    public static synchronized void unlockAll() {
+        for (RepoLock i : OPENED.values()) {
+            i.unlock();
+        }
+    }
+
+    public synchronized boolean isHeld() {
+        return lock != null;
+    }
+
+    /** Releases the lock if this process holds it */
+    public synchronized void unlock() {
+        if (lock == null) {
+            return;
+        }
+
+        try {
+            lock.release();
+            channel.close();
+        } catch (IOException ignored) {
+            // Closing the process releases the lock anyway
+        }
+        lock = null;
+        channel = null;
+    }
+}
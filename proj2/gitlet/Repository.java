@@ -1,11 +1,20 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.file.StandardCopyOption;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 
 import static gitlet.Utils.*;
 import static gitlet.Branch.*;
@@ -36,8 +45,7 @@ public class Repository {
      */
     public static void validateGitletRepo() {
         if (!Repository.GITLET_DIR.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            throw error("Not in an initialized Gitlet directory.");
         }
     }
 
@@ -60,54 +68,93 @@ public class Repository {
         RemoteRepository.REMOTE.mkdir();
 
         // Setting up branches
-        writeObject(HEAD, "master");
-        writeObject(join(LAST_COMMIT, "master"), null);
+        BinaryFormat.writeRef(HEAD, "master");
+        BinaryFormat.writeRef(join(LAST_COMMIT, "master"), null);
         addCommit("initial commit", new Date(0), new HashMap<>());
 
         // Setting up Staging Area
         STAGING_AREA.mkdir();
         TEMP.mkdir();
-        newArea();
-        writeObject(LATEST_MAP, new HashMap<>());
+        loadFullStage();
+        saveFullStage();
     }
 
     /**
-     * Adds a file to the staging area
+     * Adds files to the staging area. A directory stands for the files in it.
+     * The files are hashed in parallel and the stage is saved once.
      *
-     * @param fileName filename to be added in staging area
+     * @param names files or directories to be added in staging area
      */
-    public static void addFile(String fileName) {
+    public static void addFiles(List<String> names) {
         validateGitletRepo();
 
-        File currFile = new File(CWD, fileName);
-        if (!currFile.exists()) {
-            System.out.println("File does not exist.");
-            System.exit(0);
+        TreeSet<String> fileNames = new TreeSet<>();
+        for (String name : names) {
+            File f = new File(CWD, name);
+            Path relative = CWD.toPath().relativize(f.toPath().toAbsolutePath().normalize());
+            String path = relative.toString().replace(File.separatorChar, '/');
+
+            // Compares whole components, so that ..notes or .gitletignore may be added
+            String first = relative.getName(0).toString();
+            if (first.equals("..") || first.equals(".gitlet")) {
+                throw error("File does not exist.");
+            } else if (f.isDirectory()) {
+                fileNames.addAll(workingFiles(f));
+            } else if (f.isFile()) {
+                fileNames.add(path);
+            } else {
+                throw error("File does not exist.");
+            }
         }
 
-        Object currFileContents = (Object) readContents(currFile);
-        String currFileSha = sha1Object(currFileContents, fileName);
-
         Commit latestCommit = getCommit(getHeadActive());
-        String storedFileSha = latestCommit.getSha(fileName);
-
         loadFullStage();
-        if (currFileSha.equals(storedFileSha)) {
-            stageAdd.remove(fileName);
-            stageRemove.remove(fileName);
-        } else {
-            stageAdd.add(fileName);
-            stageRemove.remove(fileName);
 
-            if (nextMap.containsKey(fileName)) {
-                File unnecessary = join(TEMP, nextMap.get(fileName));
-                unnecessary.delete();
+        // Hashes every file and copies the changed ones to TEMP
+        HashMap<String, String> shas = new HashMap<>();
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            pool.submit(() -> fileNames.parallelStream().forEach(fileName -> {
+                File currFile = join(CWD, fileName);
+                String currFileSha = StatCache.sha(fileName, currFile);
+
+                if (!currFileSha.equals(latestCommit.getSha(fileName))) {
+                    try (Trace.Span s = Trace.begin("copy")) {
+                        s.bytes(currFile.length());
+                        Files.copy(currFile.toPath(), join(TEMP, currFileSha).toPath(),
+                                StandardCopyOption.REPLACE_EXISTING);
+                    } catch (IOException excp) {
+                        throw error("Could not stage %s", fileName);
+                    }
+                }
+
+                synchronized (shas) {
+                    shas.put(fileName, currFileSha);
+                }
+            })).get();
+        } catch (InterruptedException | ExecutionException excp) {
+            throw error("Could not add files: %s", excp.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        for (String fileName : fileNames) {
+            String currFileSha = shas.get(fileName);
+            String staged = nextMap.get(fileName);
+
+            if (staged != null && !staged.equals(currFileSha) && stageAdd.contains(fileName)) {
+                join(TEMP, staged).delete();
             }
 
-            writeContents(join(TEMP, currFileSha), currFileContents);
+            if (currFileSha.equals(latestCommit.getSha(fileName))) {
+                stageAdd.remove(fileName);
+            } else {
+                stageAdd.add(fileName);
+            }
+            stageRemove.remove(fileName);
+            nextMap.put(fileName, currFileSha);
         }
 
-        nextMap.put(fileName, currFileSha);
         saveFullStage();
     }
 
@@ -115,31 +162,30 @@ public class Repository {
         validateGitletRepo();
 
         if (msg.isEmpty()) {
-            System.out.println("Please enter a commit message.");
-            System.exit(0);
+            throw error("Please enter a commit message.");
         }
 
         loadFullStage();
         if (stageAdd.isEmpty() && stageRemove.isEmpty()) {
-            System.out.println("No changes added to the commit.");
-            System.exit(0);
+            throw error("No changes added to the commit.");
         }
 
         List<String> tempFiles = plainFilenamesIn(TEMP);
         if (tempFiles != null) {
             for (String i : tempFiles) {
-                File startDir = join(OBJECTS_DIR, i.substring(0, 1));
-                startDir.mkdir();
-                try {
-                    Files.move(TEMP.toPath().resolve(i), startDir.toPath().resolve(i),
-                            StandardCopyOption.REPLACE_EXISTING);
-                } catch (IOException ignored) {
-                    return;
-                }
+                BlobStore.local().store(i, join(TEMP, i));
             }
         }
 
-        addCommit(msg, new Date(), nextMap);
+        HashMap<String, String> changes = new HashMap<>();
+        for (String i : stageAdd) {
+            changes.put(i, nextMap.get(i));
+        }
+        for (String i : stageRemove) {
+            changes.put(i, null);
+        }
+
+        addCommit(msg, new Date(), changes);
         newArea();
     }
 
@@ -150,8 +196,7 @@ public class Repository {
         loadFullStage();
 
         if (latestCommit.getSha(fileName) != null && !stageRemove.contains(fileName)) {
-            File f = new File(CWD, fileName);
-            f.delete();
+            deleteWorkingFile(fileName);
 
             File unnecessary = join(TEMP, nextMap.get(fileName));
             unnecessary.delete();
@@ -173,57 +218,244 @@ public class Repository {
         saveFullStage();
     }
 
-    private static void printCommit(String shaOfi, Commit c) {
-        System.out.print("===\ncommit ");
-        System.out.println(shaOfi);
-        System.out.println(c);
-        System.out.println();
+    private static void printCommit(PrintWriter out, CommitGraph g, int pos) {
+        out.print("===\ncommit ");
+        out.println(g.id(pos));
+        out.println(g.describe(pos));
+        out.println();
+    }
+
+    /** Returns a buffered writer to standard output which the caller must flush */
+    private static PrintWriter logWriter() {
+        return new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
     }
 
     public static void printLog() {
+        printLog(Integer.MAX_VALUE, Long.MIN_VALUE, 0, null);
+    }
+
+    /**
+     * Prints the first parent history of the active branch as it is walked,
+     * leaving out commits older than SINCE, and unless PATH is null those
+     * which did not change the file or directory PATH, and the first SKIP of
+     * the others and stopping after LIMIT commits
+     */
+    public static void printLog(int limit, long since, int skip, String path) {
         validateGitletRepo();
-        String shaOfi = getHeadActive();
-        Commit i = getCommit(shaOfi);
-        int c = 0;
+        CommitGraph g = CommitGraph.local();
+        PrintWriter out = logWriter();
 
-        while (i != null) {
-            ++c;
-            printCommit(shaOfi, i);
+        PathFilters filters = null;
+        if (path != null) {
+            filters = g.pathFilters();
+            Metrics.share("bloom.falsePositiveRate", "bloom.falsePositive",
+                    "bloom.definitelyNot");
+        }
 
-            shaOfi = i.getParent();
-            i = getCommit(shaOfi);
+        int shown = 0;
+        for (int i = g.ensure(getHeadActive()); i != CommitGraph.NONE && shown < limit;
+             i = g.parent(i)) {
+            if (g.timestamp(i) < since) {
+                continue;
+            }
+            if (filters != null && !filters.changed(g, i, path)) {
+                continue;
+            }
+            if (skip > 0) {
+                --skip;
+                continue;
+            }
+
+            printCommit(out, g, i);
+            ++shown;
         }
+        out.flush();
     }
 
+    /** Prints every commit in the order of their ids */
     public static void globalLog() {
         validateGitletRepo();
-        List<String> l = plainFilenamesIn(COMMITS_DIR);
+        SortedIndex ids = CommitGraph.ids();
+        CommitGraph g = CommitGraph.local();
+        PrintWriter out = logWriter();
 
-        for (String i : l) {
-            printCommit(i, getCommit(i));
+        Iterator<Map.Entry<String, String>> it = ids.iterator();
+        while (it.hasNext()) {
+            printCommit(out, g, Integer.parseInt(it.next().getValue()));
         }
+        out.flush();
     }
 
-    public static void findCommits(String msg) {
+    /**
+     * Prints the commits whose message is MSG, or with OPTION --token contains
+     * all of its words, or with OPTION --substring contains it
+     */
+    public static void findCommits(String msg, String option) {
         validateGitletRepo();
-        String[] files = COMMITS_DIR.list();
-        Commit c;
-        boolean found = false;
+        MessageIndex index = MessageIndex.local();
 
-        for (String i : files) {
-            c = getCommit(i);
+        TreeSet<String> found;
+        if (option == null) {
+            found = index.exact(msg);
+        } else if (option.equals("--token")) {
+            found = index.containsTokens(msg);
+        } else {
+            found = index.containsSubstring(msg, CommitGraph.local());
+        }
 
-            if (msg.equals(c.getMsg())) {
-                System.out.println(i);
-                found = true;
-            }
+        for (String i : found) {
+            System.out.println(i);
         }
 
-        if (!found) {
+        if (found.isEmpty()) {
             System.out.println("Found no commit with that message.");
         }
     }
 
+    /**
+     * Rebuilds the commit graph and the indexes of commit ids and messages
+     * from the commit objects
+     */
+    public static void reindex() {
+        validateGitletRepo();
+        CommitGraph g = CommitGraph.local();
+        g.rebuild();
+
+        System.out.println("Indexed " + g.size() + " commits.");
+    }
+
+    /**
+     * Prints the changes to the files, or only those under PATH if it is not
+     * null, in the unified format. Without commits the stage is compared with
+     * the working directory, with FROM the commit FROM is, and with TO as well
+     * the commit FROM is compared with the commit TO. Either can also be the
+     * name of a branch. Files with the same sha on both sides are skipped
+     * without being read, and so are unchanged subtrees of two commits.
+     */
+    public static void printDiff(String from, String to, String path) {
+        validateGitletRepo();
+        loadFullStage();
+
+        // Path to its sha before and after, null for a missing file
+        TreeMap<String, String[]> changed = new TreeMap<>();
+        if (to != null) {
+            String before = getCommit(resolve(from)).getTree();
+            String after = getCommit(resolve(to)).getTree();
+            for (Map.Entry<String, String> i : Tree.diff(before, after).entrySet()) {
+                changed.put(i.getKey(),
+                        new String[] {Tree.lookup(before, i.getKey()), i.getValue()});
+            }
+        } else {
+            Map<String, String> before = from == null ? nextMap
+                    : getCommit(resolve(from)).getFilesInCommit();
+            TreeSet<String> paths = new TreeSet<>(before.keySet());
+            paths.addAll(nextMap.keySet());
+
+            for (String i : paths) {
+                if (!isUnder(i, path)) {
+                    continue;
+                }
+
+                File f = join(CWD, i);
+                String after = nextMap.containsKey(i) && f.isFile() ? StatCache.sha(i, f) : null;
+                if (!Objects.equals(before.get(i), after)) {
+                    changed.put(i, new String[] {before.get(i), after});
+                }
+            }
+        }
+
+        BufferedOutputStream out = new BufferedOutputStream(
+                new FileOutputStream(FileDescriptor.out), 1 << 16);
+        UnifiedDiff diff = new UnifiedDiff(out);
+        try {
+            for (Map.Entry<String, String[]> i : changed.entrySet()) {
+                if (!isUnder(i.getKey(), path)) {
+                    continue;
+                }
+
+                String[] shas = i.getValue();
+                ByteBuffer after;
+                if (shas[1] == null) {
+                    after = null;
+                } else if (to == null) {
+                    after = Packs.local().map(join(CWD, i.getKey()));
+                } else {
+                    after = blobContents(shas[1]);
+                }
+                diff.file(i.getKey(), shas[0] == null ? null : blobContents(shas[0]), after);
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw error("Could not print the diff.");
+        }
+    }
+
+    /** Returns the head of the branch NAME, or NAME itself if there is no such branch */
+    private static String resolve(String name) {
+        return join(LAST_COMMIT, name).isFile() ? getHead(name) : name;
+    }
+
+    /** True if the file PATH is DIR or inside it, or if DIR is null */
+    private static boolean isUnder(String path, String dir) {
+        return dir == null || path.equals(dir) || path.startsWith(dir + "/");
+    }
+
+    /** Returns the contents of the blob SHA, which may only be staged so far */
+    private static ByteBuffer blobContents(String sha) {
+        File staged = join(TEMP, sha);
+        return staged.isFile() ? Packs.local().map(staged) : BlobStore.local().contents(sha);
+    }
+
+    /**
+     * Returns the paths of all files under DIR relative to the working
+     * directory, in order, with the .gitlet directory left out
+     */
+    @SuppressWarnings("try")
+    static List<String> workingFiles(File dir) {
+        List<String> result = new ArrayList<>();
+        String prefix = CWD.toPath().relativize(dir.toPath().toAbsolutePath().normalize())
+                .toString().replace(File.separatorChar, '/');
+        try (Trace.Span s = Trace.begin("list working files")) {
+            addWorkingFiles(dir, prefix.isEmpty() ? "" : prefix + "/", result);
+        }
+        return result;
+    }
+
+    private static void addWorkingFiles(File dir, String prefix, List<String> result) {
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+
+        Arrays.sort(names);
+        for (String name : names) {
+            File f = join(dir, name);
+            if (f.isDirectory()) {
+                if (!name.equals(".gitlet")) {
+                    addWorkingFiles(f, prefix + name + "/", result);
+                }
+            } else if (f.isFile()) {
+                result.add(prefix + name);
+            }
+        }
+    }
+
+    /**
+     * Deletes the file at PATH in the working directory along with the
+     * directories it leaves empty
+     */
+    static void deleteWorkingFile(String path) {
+        File f = join(CWD, path);
+        f.delete();
+
+        for (File dir = f.getParentFile(); !dir.equals(CWD); dir = dir.getParentFile()) {
+            String[] left = dir.list();
+            if (left == null || left.length > 0 || !dir.delete()) {
+                break;
+            }
+        }
+    }
+
     /**
      * Returns a Set of Strings which are in list but not in map
      *
@@ -239,9 +471,8 @@ public class Repository {
         for (String i : filesInDir) {
             if (!temp.containsKey(i)) {
                 if (!wantList) {
-                    System.out.println("There is an untracked file in the way; "
+                    throw error("There is an untracked file in the way; "
                             + "delete it, or add and commit it first.");
-                    System.exit(0);
                 }
 
                 untracked.add(i);
@@ -260,12 +491,17 @@ public class Repository {
         File[] files = LAST_COMMIT.listFiles();
 
         for (File i : files) {
-            if (i.isDirectory()) {
+            if (i.getName().startsWith(".")) {
+                // Left behind by an interrupted atomic write
+                continue;
+            } else if (i.isDirectory()) {
                 String[] l = i.list();
                 String name = i.getName() + "/";
 
                 for (String j : l) {
-                    branchList.add(name + j);
+                    if (!j.startsWith(".")) {
+                        branchList.add(name + j);
+                    }
                 }
             } else {
                 branchList.add(i.getName());
@@ -297,7 +533,7 @@ public class Repository {
             File inCWD = join(CWD, i.getKey());
 
             if (inCWD.exists()) {
-                String inCWDSha = sha1Object(readContents(inCWD), i.getKey());
+                String inCWDSha = StatCache.sha(i.getKey(), inCWD);
 
                 // Checking if staged contents are same as in working directory
                 if (!inCWDSha.equals(i.getValue())) {
@@ -311,9 +547,10 @@ public class Repository {
         for (String i : modified) {
             System.out.println(i);
         }
+        StatCache.retain(nextMap.keySet());
 
         System.out.println("\n=== Untracked Files ===");
-        List<String> dr = plainFilenamesIn(CWD);
+        List<String> dr = workingFiles(CWD);
         TreeSet<String> untracked = untrackedFiles(dr, nextMap, true);
 
         for (String i : untracked) {
@@ -328,8 +565,7 @@ public class Repository {
         List<String> l = plainFilenamesIn(LAST_COMMIT);
 
         if (l.contains(branchName)) {
-            System.out.println("A branch with that name already exists.");
-            System.exit(0);
+            throw error("A branch with that name already exists.");
         }
 
         createNewBranch(branchName);
@@ -339,14 +575,10 @@ public class Repository {
      * Replaces the files in CWD with file that has the given sha
      */
     protected static void writeFileCWD(String fileName, String shaOfFile) {
-        try {
-            Files.copy(Paths.get(OBJECTS_DIR.getAbsolutePath(),
-                            shaOfFile.substring(0, 1), shaOfFile),
-                    CWD.toPath().resolve(fileName),
-                    StandardCopyOption.REPLACE_EXISTING);
-        } catch (IOException ignored) {
-            return;
-        }
+        File f = join(CWD, fileName);
+        f.getParentFile().mkdirs();
+        BlobStore.local().copyTo(shaOfFile, f.toPath());
+        StatCache.record(fileName, f, shaOfFile);
     }
 
     /**
@@ -357,36 +589,72 @@ public class Repository {
         String shaOfFile = c.getSha(fileName);
 
         if (shaOfFile == null) {
-            System.out.println("File does not exist in that commit.");
-            System.exit(0);
+            throw error("File does not exist in that commit.");
         }
 
         writeFileCWD(fileName, shaOfFile);
     }
 
     /**
-     * Writes everything from the given commit to the Working directory
+     * Makes the working directory match the given commit. Files which differ
+     * between it and the head commit or are staged are written or deleted, and
+     * of the others only those whose working copy is missing or was changed are
+     * written again. The files are written in parallel.
      */
     private static void copyFromREPO(String shaOfCommit) {
-        List<String> dr = plainFilenamesIn(CWD);
-        loadStageMap();
+        loadFullStage();
+        Commit head = getCommit(getHeadActive());
+        Commit target = getCommit(shaOfCommit);
+
+        HashMap<String, String> changes = Tree.diff(head.getTree(), target.getTree());
+        for (String i : stageAdd) {
+            changes.put(i, target.getSha(i));
+        }
+        for (String i : stageRemove) {
+            changes.put(i, target.getSha(i));
+        }
 
-        if (!(dr == null)) {
-            untrackedFiles(dr, nextMap, false);
+        List<String> toWrite = new ArrayList<>();
+        for (Map.Entry<String, String> i : changes.entrySet()) {
+            // Files staged for removal and then recreated are untracked as well
+            if (!nextMap.containsKey(i.getKey()) && join(CWD, i.getKey()).exists()) {
+                throw error("There is an untracked file in the way; "
+                        + "delete it, or add and commit it first.");
+            }
+            if (i.getValue() != null) {
+                toWrite.add(i.getKey());
+            }
+        }
+
+        HashMap<String, String> files = target.getFilesInCommit();
+        for (Map.Entry<String, String> i : files.entrySet()) {
+            File f = join(CWD, i.getKey());
+            if (!changes.containsKey(i.getKey())
+                    && (!f.isFile() || !i.getValue().equals(StatCache.sha(i.getKey(), f)))) {
+                changes.put(i.getKey(), i.getValue());
+                toWrite.add(i.getKey());
+            }
+        }
 
-            for (String i : dr) {
-                File delete = join(CWD, i);
-                delete.delete();
+        for (Map.Entry<String, String> i : changes.entrySet()) {
+            if (i.getValue() == null) {
+                deleteWorkingFile(i.getKey());
+                nextMap.remove(i.getKey());
+            } else {
+                nextMap.put(i.getKey(), i.getValue());
             }
         }
 
-        Commit branchCommit = getCommit(shaOfCommit);
-        for (Map.Entry<String, String> i : branchCommit.getFilesInCommit().entrySet()) {
-            writeFileCWD(i.getKey(), i.getValue());
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            pool.submit(() -> toWrite.parallelStream()
+                    .forEach(i -> writeFileCWD(i, changes.get(i)))).get();
+        } catch (InterruptedException | ExecutionException excp) {
+            throw error("Could not write files: %s", excp.getCause());
+        } finally {
+            pool.shutdown();
         }
 
-        nextMap = branchCommit.getFilesInCommit();
-        saveStageMap();
         newArea();
     }
 
@@ -397,18 +665,17 @@ public class Repository {
         validateGitletRepo();
 
         if (branchName.equals(getActiveBranchName())) {
-            System.out.println("No need to checkout the current branch.");
-            System.exit(0);
+            throw error("No need to checkout the current branch.");
         }
 
         File branchFile = join(LAST_COMMIT, branchName);
         if (!branchFile.exists()) {
-            System.out.println("No such branch exists.");
-            System.exit(0);
+            throw error("No such branch exists.");
         }
 
+        String oldBranch = getActiveBranchName();
         copyFromREPO(getHead(branchName));
-        writeObject(HEAD, branchName);
+        compareAndSetRef(GITLET_DIR, HEAD, oldBranch, branchName);
     }
 
     /**
@@ -419,14 +686,12 @@ public class Repository {
         validateGitletRepo();
 
         if (branchName.equals(getActiveBranchName())) {
-            System.out.println("Cannot remove the current branch.");
-            System.exit(0);
+            throw error("Cannot remove the current branch.");
         }
 
         File branchFile = join(LAST_COMMIT, branchName);
         if (!branchFile.exists()) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            throw error("A branch with that name does not exist.");
         }
 
         File branchHEAD = new File(LAST_COMMIT, branchName);
@@ -441,10 +706,11 @@ public class Repository {
         validateGitletRepo();
 
         String fullCommit = getFullCommit(shaOfCommit);
+        String oldHead = getHeadActive();
         copyFromREPO(fullCommit);
 
         File head = join(LAST_COMMIT, getActiveBranchName());
-        writeObject(head, fullCommit);
+        compareAndSetRef(GITLET_DIR, head, oldHead, fullCommit);
     }
 
     /**
@@ -456,30 +722,73 @@ public class Repository {
         // Checking for non-existing branch
         File branchFile = join(LAST_COMMIT, branchName);
         if (!branchFile.exists()) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            throw error("A branch with that name does not exist.");
         }
 
         // Checking if branch is same as active branch
         String activeBranch = getActiveBranchName();
         if (activeBranch.equals(branchName)) {
-            System.out.println("Cannot merge a branch with itself.");
-            System.exit(0);
+            throw error("Cannot merge a branch with itself.");
         }
 
         // Checking for untracked files
         loadFullStage();
-        List<String> dr = plainFilenamesIn(CWD);
-        if (!(dr == null)) {
-            untrackedFiles(dr, nextMap, false);
-        }
+        untrackedFiles(workingFiles(CWD), nextMap, false);
 
         // Checking for uncommitted changes
         if (!stageAdd.isEmpty() || !stageRemove.isEmpty()) {
-            System.out.println("You have uncommitted changes.");
-            System.exit(0);
+            throw error("You have uncommitted changes.");
         }
 
         Branch.mergeBranch(activeBranch, branchName);
     }
+
+    /**
+     * Rewrites every commit, ref and staging file written with Java serialization
+     * in the binary format, moves the files of older commits into trees,
+     * rehashes blobs named with another hash than core.hashAlgorithm, and
+     * compresses stored files if compression is on
+     */
+    public static void migrate() {
+        validateGitletRepo();
+        int commits = 0, refs = 0;
+
+        for (String i : plainFilenamesIn(COMMITS_DIR)) {
+            File f = join(COMMITS_DIR, i);
+            if (!BinaryFormat.isCurrentCommit(readContents(f))) {
+                BinaryFormat.writeCommit(f, BinaryFormat.readCommit(f));
+                ++commits;
+            }
+        }
+
+        ArrayList<File> refFiles = new ArrayList<>();
+        refFiles.add(HEAD);
+        for (File i : LAST_COMMIT.listFiles()) {
+            if (i.isDirectory()) {
+                refFiles.addAll(Arrays.asList(i.listFiles(File::isFile)));
+            } else {
+                refFiles.add(i);
+            }
+        }
+        for (File f : refFiles) {
+            if (BinaryFormat.isLegacy(readContents(f))) {
+                BinaryFormat.writeRef(f, BinaryFormat.readRef(f));
+                ++refs;
+            }
+        }
+
+        loadFullStage();
+        saveFullStage();
+
+        int rehashed = Rehasher.rehashAll();
+        int compressed = Config.compress() ? BlobStore.local().compressAll() : 0;
+
+        System.out.println("Migrated " + commits + " commits and " + refs + " refs.");
+        if (rehashed > 0) {
+            System.out.println("Rehashed " + rehashed + " files.");
+        }
+        if (compressed > 0) {
+            System.out.println("Compressed " + compressed + " files.");
+        }
+    }
 }
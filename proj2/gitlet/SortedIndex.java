@@ -0,0 +1,362 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * A persistent map from strings to strings which answers exact and prefix
+ * lookups without reading the whole map.
+ *
+ * Entries live in a sorted base file which is memory-mapped and binary searched
+ * through its table of record offsets. New entries are appended to a log file
+ * next to it, and once the log holds LOG_LIMIT entries and an eighth as many
+ * as the base file, it is merged into a new base file. A merge writes the n
+ * entries of the base after at least n / 8 additions, so adding an entry is
+ * O(1) amortized, and a lookup is a binary search plus a search of the
+ * in-memory log.
+ *
+ * Base file: MAGIC | VERSION | count | count record offsets (int) | records
+ * Log file:  records
+ * Record:    key length (int) | key (UTF-8) | value length (int, -1 if removed) | value
+ *
+ * @author Kheyanshu Garg
+ */
+public class SortedIndex {
+    private static final int MAGIC = 0x474c5349;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    static final int LOG_LIMIT = 1024;
+    /** The log is merged once it holds this fraction of the entries of the base */
+    private static final int LOG_FRACTION = 8;
+
+    /** Indexes opened so far, so that each file is only opened once */
+    private static final HashMap<File, SortedIndex> OPENED = new HashMap<>();
+
+    private final File baseFile;
+    private final File logFile;
+    private MappedByteBuffer base;
+    private int count;
+    /** Entries of the log, with null values for removed keys */
+    private final TreeMap<String, String> log = new TreeMap<>();
+    private int logEntries;
+
+    private SortedIndex(File baseFile) {
+        this.baseFile = baseFile;
+        this.logFile = new File(baseFile.getPath() + ".log");
+        open();
+    }
+
+    /** Returns the index saved in BASEFILE, which is empty if it does not exist yet */
+    public static synchronized SortedIndex of(File baseFile) {
+        return OPENED.computeIfAbsent(baseFile.getAbsoluteFile(), SortedIndex::new);
+    }
+
+    /**
+     * Reopens every index opened so far, so that a long running process sees
+     * what other processes wrote to them
+     */
+    static synchronized void reloadAll() {
+        for (SortedIndex i : OPENED.values()) {
+            i.open();
+        }
+    }
+
+    /** True if the index has been written before */
+    public boolean exists() {
+        return baseFile.exists();
+    }
+
+    private void open() {
+        base = null;
+        count = 0;
+        log.clear();
+        logEntries = 0;
+
+        if (baseFile.exists()) {
+            try (FileChannel ch = FileChannel.open(baseFile.toPath(), StandardOpenOption.READ)) {
+                base = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            } catch (IOException excp) {
+                throw error("Could not read %s", baseFile.getName());
+            }
+
+            if (base.getInt(0) != MAGIC || base.getInt(4) != VERSION) {
+                throw error("Corrupted index %s", baseFile.getName());
+            }
+            count = base.getInt(8);
+        }
+
+        if (logFile.exists()) {
+            ByteBuffer buf = ByteBuffer.wrap(readContents(logFile));
+            // A trailing partial record is what an interrupted append leaves behind
+            while (buf.remaining() >= 8) {
+                int mark = buf.position();
+                try {
+                    String key = readString(buf);
+                    int length = buf.getInt();
+                    String value = null;
+                    if (length >= 0) {
+                        value = new String(buf.array(), buf.position(), length,
+                                StandardCharsets.UTF_8);
+                        buf.position(buf.position() + length);
+                    }
+                    log.put(key, value);
+                    ++logEntries;
+                } catch (RuntimeException excp) {
+                    buf.position(mark);
+                    break;
+                }
+            }
+        }
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int length = buf.getInt();
+        String s = new String(buf.array(), buf.position(), length, StandardCharsets.UTF_8);
+        buf.position(buf.position() + length);
+        return s;
+    }
+
+    /* THE BASE FILE */
+
+    private int offsetOf(int i) {
+        return base.getInt(HEADER_SIZE + i * 4);
+    }
+
+    private String keyAt(int i) {
+        int at = offsetOf(i);
+        byte[] bytes = new byte[base.getInt(at)];
+        base.get(at + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private String valueAt(int i) {
+        int at = offsetOf(i);
+        at += 4 + base.getInt(at);
+        byte[] bytes = new byte[base.getInt(at)];
+        base.get(at + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Returns the first position in the base file whose key is at least KEY */
+    private int lowerBound(String key) {
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keyAt(mid).compareTo(key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /* LOOKUPS */
+
+    /** Returns the value of KEY or null */
+    public String get(String key) {
+        if (log.containsKey(key)) {
+            return log.get(key);
+        }
+
+        int i = lowerBound(key);
+        return i < count && keyAt(i).equals(key) ? valueAt(i) : null;
+    }
+
+    /**
+     * Returns at most LIMIT entries whose keys start with PREFIX, in order.
+     */
+    public List<Map.Entry<String, String>> prefix(String prefix, int limit) {
+        List<Map.Entry<String, String>> result = new ArrayList<>();
+        Iterator<Map.Entry<String, String>> it = iterator(prefix);
+
+        while (result.size() < limit && it.hasNext()) {
+            Map.Entry<String, String> e = it.next();
+            if (!e.getKey().startsWith(prefix)) {
+                break;
+            }
+            result.add(e);
+        }
+        return result;
+    }
+
+    /** Iterates over every entry in key order */
+    public Iterator<Map.Entry<String, String>> iterator() {
+        return iterator("");
+    }
+
+    /**
+     * Iterates in key order over the entries whose keys are at least FROM, merging
+     * the base file with the log.
+     */
+    public Iterator<Map.Entry<String, String>> iterator(String from) {
+        return new Iterator<>() {
+            private int i = lowerBound(from);
+            private final Iterator<Map.Entry<String, String>> logIt =
+                    log.tailMap(from, true).entrySet().iterator();
+            private Map.Entry<String, String> logNext = advanceLog();
+            private Map.Entry<String, String> next = advance();
+
+            private Map.Entry<String, String> advanceLog() {
+                return logIt.hasNext() ? logIt.next() : null;
+            }
+
+            private Map.Entry<String, String> advance() {
+                while (true) {
+                    String baseKey = i < count ? keyAt(i) : null;
+                    if (baseKey == null && logNext == null) {
+                        return null;
+                    }
+
+                    Map.Entry<String, String> e;
+                    int cmp = baseKey == null ? 1 : logNext == null ? -1
+                            : baseKey.compareTo(logNext.getKey());
+                    if (cmp < 0) {
+                        e = Map.entry(baseKey, valueAt(i));
+                        ++i;
+                    } else {
+                        if (cmp == 0) {
+                            ++i;
+                        }
+                        e = logNext;
+                        logNext = advanceLog();
+                        if (e.getValue() == null) {
+                            continue;
+                        }
+                    }
+                    return e;
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<String, String> next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<String, String> e = next;
+                next = advance();
+                return e;
+            }
+        };
+    }
+
+    /* UPDATES */
+
+    /** Maps KEY to VALUE */
+    public void put(String key, String value) {
+        append(List.of(Map.entry(key, value)));
+    }
+
+    /** Maps every key of ENTRIES to its value, with a single append to the log */
+    public void putAll(List<Map.Entry<String, String>> entries) {
+        append(entries);
+    }
+
+    /** Removes KEY from the index */
+    public void remove(String key) {
+        append(List.of(new AbstractMap.SimpleEntry<>(key, (String) null)));
+    }
+
+    private void append(List<Map.Entry<String, String>> entries) {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(logFile, true)))) {
+            for (Map.Entry<String, String> e : entries) {
+                writeRecord(out, e.getKey(), e.getValue());
+            }
+        } catch (IOException excp) {
+            throw error("Could not update %s", baseFile.getName());
+        }
+
+        for (Map.Entry<String, String> e : entries) {
+            log.put(e.getKey(), e.getValue());
+        }
+        logEntries += entries.size();
+        if (logEntries >= Math.max(LOG_LIMIT, count / LOG_FRACTION)) {
+            compact();
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, String key, String value)
+            throws IOException {
+        byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(k.length);
+        out.write(k);
+
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] v = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(v.length);
+            out.write(v);
+        }
+    }
+
+    /** Merges the log into a new base file */
+    public void compact() {
+        List<Map.Entry<String, String>> entries = new ArrayList<>();
+        iterator().forEachRemaining(entries::add);
+        write(entries);
+    }
+
+    /** Replaces the whole index with ENTRIES, which must be sorted by key */
+    @SuppressWarnings("try")
+    public void write(List<Map.Entry<String, String>> entries) {
+        File tmp = new File(baseFile.getPath() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+
+            int at = HEADER_SIZE + entries.size() * 4;
+            ByteBuffer table = ByteBuffer.allocate(entries.size() * 4);
+            for (int i = 0; i < entries.size(); ++i) {
+                table.putInt(at);
+                at += 8 + entries.get(i).getKey().getBytes(StandardCharsets.UTF_8).length
+                        + entries.get(i).getValue().getBytes(StandardCharsets.UTF_8).length;
+            }
+            out.write(table.array());
+
+            for (Map.Entry<String, String> e : entries) {
+                writeRecord(out, e.getKey(), e.getValue());
+            }
+        } catch (IOException excp) {
+            throw error("Could not write %s", baseFile.getName());
+        }
+
+        try (Trace.Span s = Trace.begin("move")) {
+            Files.move(tmp.toPath(), baseFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw error("Could not write %s", baseFile.getName());
+        }
+        logFile.delete();
+        open();
+    }
+}
@@ -0,0 +1,167 @@
+package gitlet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+
+/** Times Branch.getSplitPoint on synthetic commit graphs and checks its answers
+ *  against a brute force search on small graphs.
+ *  Usage: java gitlet.SplitPointSpeedTest [NUMBER_OF_COMMITS]
+ *  @author Kheyanshu Garg
+ */
+public class SplitPointSpeedTest {
+    private static final int QUERIES = 200;
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+
+        checkCorrectness();
+
+        System.out.printf("Linear history of %d commits:%n", n);
+        timeQueries(linear(n), new Random(1));
+
+        System.out.printf("Branchy history of %d commits:%n", n);
+        timeQueries(branchy(n, new Random(2)), new Random(3));
+    }
+
+    /** A single long chain with two short branches at the very end */
+    static CommitGraph linear(int n) {
+        CommitGraph g = new CommitGraph();
+        for (int i = 0; i < n; ++i) {
+            g.add(id(i), i == 0 ? null : id(i - 1), null, i, "");
+        }
+
+        g.add("left", id(n - 1), null, n, "");
+        g.add("right", id(n - 1), null, n, "");
+        return g;
+    }
+
+    /**
+     * A history in which a handful of branches keep forking off, growing and
+     * merging back into each other
+     */
+    static CommitGraph branchy(int n, Random r) {
+        CommitGraph g = new CommitGraph();
+        ArrayList<String> tips = new ArrayList<>();
+
+        g.add(id(0), null, null, 0, "");
+        tips.add(id(0));
+
+        for (int i = 1; i < n; ++i) {
+            int t = r.nextInt(tips.size());
+            double roll = r.nextDouble();
+
+            if (roll < 0.05 && tips.size() > 1) {
+                int other = r.nextInt(tips.size());
+                if (other == t) {
+                    other = (other + 1) % tips.size();
+                }
+                g.add(id(i), tips.get(t), tips.get(other), i, "");
+                tips.remove(Math.max(t, other));
+                tips.set(Math.min(t, other), id(i));
+            } else if (roll < 0.10 && tips.size() < 16) {
+                g.add(id(i), tips.get(t), null, i, "");
+                tips.add(id(i));
+            } else {
+                g.add(id(i), tips.get(t), null, i, "");
+                tips.set(t, id(i));
+            }
+        }
+
+        return g;
+    }
+
+    private static String id(int i) {
+        return String.format("%040x", i);
+    }
+
+    /** Times QUERIES split point searches between commits near the top of G */
+    private static void timeQueries(CommitGraph g, Random r) {
+        int window = Math.min(g.size(), 1000);
+        String[][] pairs = new String[QUERIES][2];
+        for (String[] p : pairs) {
+            p[0] = g.id(g.size() - 1 - r.nextInt(window));
+            p[1] = g.id(g.size() - 1 - r.nextInt(window));
+        }
+
+        long start = System.nanoTime();
+        for (String[] p : pairs) {
+            Branch.getSplitPoint(g, p[0], p[1]);
+        }
+        double split = (System.nanoTime() - start) / 1e6 / QUERIES;
+
+        start = System.nanoTime();
+        for (String[] p : pairs) {
+            bruteForce(g, p[0], p[1], false);
+        }
+        double full = (System.nanoTime() - start) / 1e6 / QUERIES;
+
+        System.out.printf("  getSplitPoint:          %.3f ms per query%n", split);
+        System.out.printf("  full ancestor search:   %.3f ms per query%n", full);
+    }
+
+    /** Compares getSplitPoint with the brute force answer on small random graphs */
+    private static void checkCorrectness() {
+        Random r = new Random(4);
+        for (int round = 0; round < 20; ++round) {
+            CommitGraph g = branchy(300, r);
+
+            for (int q = 0; q < 50; ++q) {
+                String a = g.id(r.nextInt(g.size())), b = g.id(r.nextInt(g.size()));
+                String split = Branch.getSplitPoint(g, a, b);
+
+                if (!bruteForce(g, a, b, true).contains(split)) {
+                    throw new AssertionError("wrong split point for " + a + " " + b);
+                }
+            }
+        }
+        System.out.println("getSplitPoint agrees with brute force search.");
+    }
+
+    /**
+     * Returns the latest common ancestors of A and B, found by collecting every
+     * ancestor of both. If LATEST is false only the common ancestors are found.
+     */
+    private static HashSet<String> bruteForce(CommitGraph g, String a, String b,
+                                              boolean latest) {
+        HashSet<Integer> common = ancestors(g, g.position(a));
+        common.retainAll(ancestors(g, g.position(b)));
+
+        HashSet<String> result = new HashSet<>();
+        if (!latest) {
+            return result;
+        }
+
+        HashSet<Integer> covered = new HashSet<>();
+        for (int c : common) {
+            for (int p : new int[] {g.parent(c), g.secondParent(c)}) {
+                if (p != CommitGraph.NONE) {
+                    covered.addAll(ancestors(g, p));
+                }
+            }
+        }
+        for (int c : common) {
+            if (!covered.contains(c)) {
+                result.add(g.id(c));
+            }
+        }
+        return result;
+    }
+
+    private static HashSet<Integer> ancestors(CommitGraph g, int start) {
+        HashSet<Integer> seen = new HashSet<>();
+        ArrayDeque<Integer> todo = new ArrayDeque<>();
+        todo.push(start);
+
+        while (!todo.isEmpty()) {
+            int pos = todo.pop();
+            if (pos == CommitGraph.NONE || !seen.add(pos)) {
+                continue;
+            }
+            todo.push(g.parent(pos));
+            todo.push(g.secondParent(pos));
+        }
+        return seen;
+    }
+}
@@ -1,55 +1,319 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.TreeSet;
+import java.util.zip.CRC32;
 
 import static gitlet.Utils.*;
 
 /**
- * This class is a static class. It odes not have any object of his own
- * It is mainly used to manipulate the staging area of the repo
+ * The staging area: the files of the next commit in nextMap, and which of them
+ * were added or removed since the last commit.
+ *
+ * On disk, the stage is a snapshot of every path with its sha and whether it
+ * is added or removed, sorted by path, and a journal of the changes made since.
+ * Saving appends one batch holding only the paths whose entry changed, as
+ *   length (int) | CRC32 of the batch (int) | batch
+ * and forces the journal to the disk once. A batch is only replayed if it is
+ * complete and its checksum matches, so an interrupted save leaves the stage
+ * as it was before that command. Once the journal is larger than the
+ * snapshot, the whole stage is written to a new snapshot and the journal is
+ * deleted; replaying a batch twice does no harm, so a crash in between is
+ * safe as well.
+ *
+ * Stages written by older gitlets as the files add, remove and nextMap are
+ * still read, and the next save replaces them with a snapshot.
+ *
+ * @author Kheyanshu Garg
  */
 public class Stage {
     /** Folder where staged files are stored */
     public static final File STAGING_AREA = join(Repository.GITLET_DIR, "staging");
-    /** All the files that are ready to be committed */
+    /** Every entry of the stage as of the last compaction */
+    public static final File SNAPSHOT = join(STAGING_AREA, "stage");
+    /** The changes to the stage since the snapshot */
+    public static final File JOURNAL = join(STAGING_AREA, "stage.log");
+    /** The files to be added by the next commit, as older gitlets stored them */
     public static final File STAGED_ADD = join(STAGING_AREA, "add");
-    /** All the files that are ready to be removed */
+    /** The files to be removed by the next commit, as older gitlets stored them */
     public static final File STAGED_REMOVED = join(STAGING_AREA, "remove");
-    /** All the files that should be tracked and untracked in the next commit */
-    public static final File LATEST_MAP = Utils.join(STAGING_AREA, "nextMap");
+    /** The files of the next commit, as older gitlets stored them */
+    public static final File LATEST_MAP = join(STAGING_AREA, "nextMap");
+
+    private static final byte VERSION = 1;
+    private static final int ADDED = 1;
+    private static final int REMOVED = 2;
+    private static final int FRAME_HEADER = 4 + 4;
+    /** The journal is never compacted while it is smaller than this */
+    private static final long MIN_JOURNAL = 4096;
+
     protected static TreeSet<String> stageAdd;
     protected static TreeSet<String> stageRemove;
     protected static HashMap<String, String> nextMap;
 
+    /** The stage as it is on disk, which saving compares the fields with */
+    private static HashMap<String, Entry> saved;
+    private static long snapshotBytes;
+    /** Length of the complete batches of the journal */
+    private static long journalBytes;
+    /** True if the stage on disk must be rewritten as a snapshot */
+    private static boolean compactPending;
+
+    /** The state of one path. A journal record with no sha and no flags deletes it. */
+    private static class Entry {
+        final String sha;
+        final int flags;
+
+        Entry(String sha, int flags) {
+            this.sha = sha;
+            this.flags = flags;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Entry && ((Entry) o).flags == flags
+                    && Objects.equals(((Entry) o).sha, sha);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(sha) * 31 + flags;
+        }
+    }
+
     /** Loads full staging area in the private members */
+    @SuppressWarnings("try")
     public static void loadFullStage() {
-        stageAdd = readObject(STAGED_ADD, TreeSet.class);
-        stageRemove = readObject(STAGED_REMOVED, TreeSet.class);
-        nextMap = readObject(LATEST_MAP, HashMap.class);
+        try (Trace.Span s = Trace.begin("load stage")) {
+            load();
+        }
     }
 
-    public static void loadStageMap() {
-        nextMap = readObject(LATEST_MAP, HashMap.class);
+    private static void load() {
+        saved = new HashMap<>();
+        snapshotBytes = 0;
+        journalBytes = 0;
+        compactPending = false;
+
+        if (SNAPSHOT.exists()) {
+            readSnapshot();
+        } else if (LATEST_MAP.exists()) {
+            readLegacy();
+            compactPending = true;
+        } else {
+            compactPending = true;
+        }
+        if (JOURNAL.exists()) {
+            replay(readContents(JOURNAL));
+        }
+
+        stageAdd = new TreeSet<>();
+        stageRemove = new TreeSet<>();
+        nextMap = new HashMap<>(Math.max(16, saved.size() * 4 / 3 + 1));
+        for (Map.Entry<String, Entry> i : saved.entrySet()) {
+            Entry e = i.getValue();
+            if (e.sha != null) {
+                nextMap.put(i.getKey(), e.sha);
+            }
+            if ((e.flags & ADDED) != 0) {
+                stageAdd.add(i.getKey());
+            }
+            if ((e.flags & REMOVED) != 0) {
+                stageRemove.add(i.getKey());
+            }
+        }
+    }
+
+    private static void readSnapshot() {
+        byte[] bytes = readContents(SNAPSHOT);
+        snapshotBytes = bytes.length;
+        BinaryFormat.Reader r = new BinaryFormat.Reader(bytes, BinaryFormat.STAGE, VERSION);
+        try {
+            for (long n = r.varint(); n > 0; --n) {
+                String path = r.string();
+                saved.put(path, new Entry(r.string(), (int) r.varint()));
+            }
+        } catch (BufferUnderflowException excp) {
+            throw error("Corrupted gitlet object.");
+        }
     }
 
-    public static void saveStageArea() {
-        writeObject(STAGED_ADD, stageAdd);
-        writeObject(STAGED_REMOVED, stageRemove);
+    private static void readLegacy() {
+        for (Map.Entry<String, String> i : BinaryFormat.readStringMap(LATEST_MAP).entrySet()) {
+            saved.put(i.getKey(), new Entry(i.getValue(), 0));
+        }
+        for (String i : BinaryFormat.readStringSet(STAGED_ADD)) {
+            Entry e = saved.get(i);
+            saved.put(i, new Entry(e == null ? null : e.sha, ADDED));
+        }
+        for (String i : BinaryFormat.readStringSet(STAGED_REMOVED)) {
+            Entry e = saved.get(i);
+            saved.put(i, new Entry(e == null ? null : e.sha, (e == null ? 0 : e.flags) | REMOVED));
+        }
+    }
+
+    /** Applies the complete batches of the journal BYTES, up to a torn or corrupt one */
+    private static void replay(byte[] bytes) {
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        while (buf.remaining() >= FRAME_HEADER) {
+            int length = buf.getInt();
+            int crc = buf.getInt();
+            if (length < 0 || length > buf.remaining()
+                    || crc != checksum(bytes, buf.position(), length)) {
+                break;
+            }
+
+            byte[] batch = new byte[length];
+            buf.get(batch);
+            BinaryFormat.Reader r = new BinaryFormat.Reader(batch, BinaryFormat.STAGE_LOG,
+                    VERSION);
+            for (long n = r.varint(); n > 0; --n) {
+                String path = r.string();
+                Entry e = new Entry(r.string(), (int) r.varint());
+                if (e.sha == null && e.flags == 0) {
+                    saved.remove(path);
+                } else {
+                    saved.put(path, e);
+                }
+            }
+            journalBytes = buf.position();
+        }
     }
 
-    public static void saveStageMap() {
-        writeObject(LATEST_MAP, nextMap);
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
     }
 
+    /** Returns the entries of the fields, as they would be saved */
+    private static HashMap<String, Entry> current() {
+        HashMap<String, Entry> result = new HashMap<>(Math.max(16, nextMap.size() * 4 / 3 + 1));
+        for (Map.Entry<String, String> i : nextMap.entrySet()) {
+            result.put(i.getKey(), new Entry(i.getValue(), flags(i.getKey())));
+        }
+        for (String i : stageAdd) {
+            result.putIfAbsent(i, new Entry(null, flags(i)));
+        }
+        for (String i : stageRemove) {
+            result.putIfAbsent(i, new Entry(null, flags(i)));
+        }
+        return result;
+    }
+
+    private static int flags(String path) {
+        return (stageAdd.contains(path) ? ADDED : 0) | (stageRemove.contains(path) ? REMOVED : 0);
+    }
+
+    /**
+     * Saves the staging area, by appending the entries which changed since it
+     * was loaded to the journal
+     */
     public static void saveFullStage() {
-        saveStageMap();
-        saveStageArea();
+        HashMap<String, Entry> now = current();
+        if (saved == null || compactPending) {
+            compact(now);
+            return;
+        }
+
+        List<String> changed = new ArrayList<>();
+        for (Map.Entry<String, Entry> i : now.entrySet()) {
+            if (!i.getValue().equals(saved.get(i.getKey()))) {
+                changed.add(i.getKey());
+            }
+        }
+        for (String i : saved.keySet()) {
+            if (!now.containsKey(i)) {
+                changed.add(i);
+            }
+        }
+        if (changed.isEmpty()) {
+            return;
+        }
+
+        Collections.sort(changed);
+        BinaryFormat.Writer w = new BinaryFormat.Writer(BinaryFormat.STAGE_LOG, VERSION);
+        w.varint(changed.size());
+        for (String i : changed) {
+            Entry e = now.getOrDefault(i, new Entry(null, 0));
+            w.string(i).string(e.sha).varint(e.flags);
+        }
+        append(w.toByteArray());
+        saved = now;
+
+        if (journalBytes > Math.max(MIN_JOURNAL, snapshotBytes)) {
+            compact(now);
+        }
+    }
+
+    /** Appends BATCH to the journal after its last complete batch, and forces it to the disk */
+    @SuppressWarnings("try")
+    private static void append(byte[] batch) {
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER + batch.length);
+        frame.putInt(batch.length).putInt(checksum(batch, 0, batch.length)).put(batch).flip();
+
+        try (FileChannel ch = FileChannel.open(JOURNAL.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            // Drops what an interrupted save left behind, so the batch can be read back
+            ch.truncate(journalBytes);
+            ch.position(journalBytes);
+            while (frame.hasRemaining()) {
+                ch.write(frame);
+            }
+            try (Trace.Span s = Trace.begin("fsync")) {
+                ch.force(false);
+            }
+        } catch (IOException excp) {
+            throw error("Could not save the staging area: %s", excp.getMessage());
+        }
+        journalBytes += FRAME_HEADER + batch.length;
+        Metrics.add("stage.journalBytes", FRAME_HEADER + batch.length);
+    }
+
+    /** Writes ENTRIES as the new snapshot and deletes the journal */
+    private static void compact(HashMap<String, Entry> entries) {
+        String[] paths = entries.keySet().toArray(new String[0]);
+        Arrays.sort(paths);
+
+        BinaryFormat.Writer w = new BinaryFormat.Writer(BinaryFormat.STAGE, VERSION);
+        w.varint(paths.length);
+        for (String i : paths) {
+            Entry e = entries.get(i);
+            w.string(i).string(e.sha).varint(e.flags);
+        }
+        byte[] bytes = w.toByteArray();
+        writeDurable(SNAPSHOT, bytes);
+        JOURNAL.delete();
+        STAGED_ADD.delete();
+        STAGED_REMOVED.delete();
+        LATEST_MAP.delete();
+
+        saved = entries;
+        snapshotBytes = bytes.length;
+        journalBytes = 0;
+        compactPending = false;
+        Metrics.count("stage.compactions");
     }
 
+    /** Empties the files to be added and removed, and saves the stage */
     public static void newArea() {
-        writeObject(STAGED_ADD, new TreeSet<>());
-        writeObject(STAGED_REMOVED, new TreeSet<>());
+        stageAdd = new TreeSet<>();
+        stageRemove = new TreeSet<>();
+        if (nextMap == null) {
+            nextMap = new HashMap<>();
+        }
+        saveFullStage();
     }
 }
@@ -0,0 +1,164 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/**
+ * Remembers the size, modification time and inode of every file hashed in the
+ * working directory together with its blob sha, like the index of git. A file
+ * whose stat data has not changed since it was cached is not read again.
+ *
+ * A file modified in the same clock tick in which the cache was written could
+ * keep its stat data, so entries whose modification time is not older than the
+ * cache file itself are never trusted, and neither are shas made with another
+ * hash than the one the repository uses now.
+ *
+ * @author Kheyanshu Garg
+ */
+public class StatCache {
+    /** File in which the cache is saved */
+    public static final File STAT_CACHE = join(Stage.STAGING_AREA, "statcache");
+
+    private static final byte VERSION = 1;
+
+    /** Cached stat data of a single file */
+    private static class Entry {
+        long size;
+        long mtime;
+        String inode;
+        String sha;
+    }
+
+    private static HashMap<String, Entry> entries;
+    /** Modification time of the cache file when it was loaded */
+    private static long cacheTime;
+    private static boolean dirty;
+
+    private static void load() {
+        if (entries != null) {
+            return;
+        }
+
+        entries = new HashMap<>();
+        if (!STAT_CACHE.exists()) {
+            return;
+        }
+
+        cacheTime = STAT_CACHE.lastModified() * 1000000;
+        try (Trace.Span s = Trace.begin("decode statcache")) {
+            byte[] bytes = readContents(STAT_CACHE);
+            s.bytes(bytes.length);
+            BinaryFormat.Reader r = new BinaryFormat.Reader(bytes, BinaryFormat.STAT_CACHE,
+                    VERSION);
+            for (long i = r.varint(); i > 0; --i) {
+                Entry e = new Entry();
+                String path = r.string();
+                e.size = r.varint();
+                e.mtime = r.varint();
+                e.inode = r.string();
+                e.sha = r.string();
+                entries.put(path, e);
+            }
+        } catch (GitletException | BufferUnderflowException excp) {
+            // The cache only saves work, so a damaged one is simply rebuilt
+            entries.clear();
+            dirty = true;
+        }
+    }
+
+    /** Saves the cache if it changed during this command */
+    public static synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+
+        BinaryFormat.Writer w = new BinaryFormat.Writer(BinaryFormat.STAT_CACHE, VERSION);
+        w.varint(entries.size());
+        for (HashMap.Entry<String, Entry> i : entries.entrySet()) {
+            Entry e = i.getValue();
+            w.string(i.getKey()).varint(e.size).varint(e.mtime).string(e.inode).string(e.sha);
+        }
+        writeAtomic(STAT_CACHE, w.toByteArray());
+        cacheTime = STAT_CACHE.lastModified() * 1000000;
+        dirty = false;
+    }
+
+    private static Entry stat(File f) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(f.toPath(),
+                    BasicFileAttributes.class);
+            Entry e = new Entry();
+            e.size = attrs.size();
+            e.mtime = attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+            e.inode = attrs.fileKey() == null ? null : attrs.fileKey().toString();
+            return e;
+        } catch (IOException excp) {
+            throw error("Could not read %s", f.getName());
+        }
+    }
+
+    private static boolean sameStat(Entry a, Entry b) {
+        return a.size == b.size && a.mtime == b.mtime
+                && (a.inode == null ? b.inode == null : a.inode.equals(b.inode));
+    }
+
+    /**
+     * Returns the blob sha of the file FILENAME, which is the working copy F,
+     * hashing it only if its stat data changed since it was cached. Safe to
+     * call from several threads at once.
+     */
+    @SuppressWarnings("try")
+    public static String sha(String fileName, File f) {
+        Entry now;
+        try (Trace.Span s = Trace.begin("stat")) {
+            now = stat(f);
+        }
+        synchronized (StatCache.class) {
+            load();
+            Entry cached = entries.get(fileName);
+            if (cached != null && sameStat(cached, now) && now.mtime < cacheTime
+                    && BlobStore.isCurrent(cached.sha)) {
+                Metrics.count("statcache.hit");
+                return cached.sha;
+            }
+        }
+
+        Metrics.count("statcache.miss");
+        now.sha = BlobStore.id(f, fileName);
+        synchronized (StatCache.class) {
+            entries.put(fileName, now);
+            dirty = true;
+        }
+        return now.sha;
+    }
+
+    /** Records that the working copy F of FILENAME was just written with blob SHA */
+    public static synchronized void record(String fileName, File f, String sha) {
+        load();
+        Entry now = stat(f);
+        now.sha = sha;
+        entries.put(fileName, now);
+        dirty = true;
+    }
+
+    /** Forgets every file which is not in TRACKED */
+    public static synchronized void retain(Set<String> tracked) {
+        load();
+        Iterator<String> it = entries.keySet().iterator();
+        while (it.hasNext()) {
+            if (!tracked.contains(it.next())) {
+                it.remove();
+                dirty = true;
+            }
+        }
+    }
+}
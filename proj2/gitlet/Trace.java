@@ -0,0 +1,178 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Timings of what a command spends its time on, for gitlet --trace or
+ * GITLET_TRACE=1.
+ *
+ * Reading and writing files, listing directories, hashing, decoding objects
+ * and copying and moving files each run in a span named after what they do,
+ * which records its wall time and the bytes it read or wrote. At exit a table
+ * of every kind of span, with how many there were, their total and mean time
+ * and their bytes, is printed to stderr with the counters of Metrics, such as
+ * the cache hits. Every span is also written to a file in the Chrome trace
+ * format, which chrome://tracing and Perfetto can show on a timeline, with
+ * one row for each thread. The file is GITLET_TRACE_FILE, or gitlet-trace-PID
+ * .json in the temporary directory.
+ *
+ * Spans may nest, and spans of different threads overlap, so the totals of
+ * the table add up to more than the wall time of the command. When tracing is
+ * off, a span is a shared object which records nothing.
+ *
+ * A span is always opened in a try-with-resources statement. Where the body
+ * does not use the span, the method carries @SuppressWarnings("try").
+ *
+ * @author Kheyanshu Garg
+ */
+public class Trace {
+    /** Spans beyond this many are only added to the table */
+    private static final int MAX_EVENTS = 200000;
+    private static final long START = System.nanoTime();
+
+    private static boolean enabled;
+    /** Totals of every kind of span, by name */
+    private static final HashMap<String, long[]> TOTALS = new HashMap<>();
+    private static final List<Span> EVENTS = new ArrayList<>();
+    private static long dropped;
+
+    /** A span, closed when what it times is done */
+    public static class Span implements AutoCloseable {
+        private final String name;
+        private final long start;
+        private final long thread;
+        private long end;
+        private long bytes;
+
+        private Span(String name) {
+            this.name = name;
+            this.start = System.nanoTime();
+            this.thread = Thread.currentThread().getId();
+        }
+
+        /** Adds N to the bytes read or written in this span, and returns it */
+        public Span bytes(long n) {
+            if (this != NONE) {
+                bytes += n;
+            }
+            return this;
+        }
+
+        @Override
+        public void close() {
+            if (this != NONE) {
+                end = System.nanoTime();
+                record(this);
+            }
+        }
+    }
+
+    private static final Span NONE = new Span("");
+
+    /** True if the environment asks for tracing with GITLET_TRACE */
+    public static boolean requested() {
+        String env = System.getenv("GITLET_TRACE");
+        return env != null && !env.isEmpty() && !env.equals("0");
+    }
+
+    /** Starts tracing, and reports the spans when the JVM exits */
+    public static void enable() {
+        enabled = true;
+        Runtime.getRuntime().addShutdownHook(new Thread(Trace::report));
+    }
+
+    /** Starts a span NAME, which is only recorded if tracing is on */
+    public static Span begin(String name) {
+        return enabled ? new Span(name) : NONE;
+    }
+
+    private static synchronized void record(Span s) {
+        long[] t = TOTALS.computeIfAbsent(s.name, k -> new long[3]);
+        ++t[0];
+        t[1] += s.end - s.start;
+        t[2] += s.bytes;
+
+        if (EVENTS.size() < MAX_EVENTS) {
+            EVENTS.add(s);
+        } else {
+            ++dropped;
+        }
+    }
+
+    private static synchronized void report() {
+        File out = System.getenv("GITLET_TRACE_FILE") != null
+                ? new File(System.getenv("GITLET_TRACE_FILE"))
+                : new File(System.getProperty("java.io.tmpdir"),
+                        "gitlet-trace-" + ProcessHandle.current().pid() + ".json");
+        printTable(System.err);
+        try {
+            Files.write(out.toPath(), chromeTrace().getBytes(StandardCharsets.UTF_8));
+            System.err.println("Trace written to " + out);
+        } catch (IOException excp) {
+            System.err.println("Could not write the trace: " + excp.getMessage());
+        }
+    }
+
+    private static void printTable(PrintStream out) {
+        List<Map.Entry<String, long[]>> rows = new ArrayList<>(TOTALS.entrySet());
+        rows.sort((a, b) -> Long.compare(b.getValue()[1], a.getValue()[1]));
+
+        out.printf("%-24s %8s %12s %12s %14s%n", "span", "count", "total ms", "mean us",
+                "bytes");
+        for (Map.Entry<String, long[]> i : rows) {
+            long[] t = i.getValue();
+            out.printf(Locale.ROOT, "%-24s %8d %12.3f %12.1f %14d%n", i.getKey(), t[0],
+                    t[1] / 1e6, t[1] / 1e3 / t[0], t[2]);
+        }
+        out.printf(Locale.ROOT, "%-24s %8s %12.3f%n", "wall", "",
+                (System.nanoTime() - START) / 1e6);
+        if (dropped > 0) {
+            out.println(dropped + " spans were left out of the trace file.");
+        }
+        Metrics.print(out);
+    }
+
+    private static String chromeTrace() {
+        long pid = ProcessHandle.current().pid();
+        StringBuilder sb = new StringBuilder("{\"traceEvents\": [\n");
+        for (int i = 0; i < EVENTS.size(); ++i) {
+            Span s = EVENTS.get(i);
+            sb.append(String.format(Locale.ROOT, "{\"name\": %s, \"cat\": \"gitlet\", "
+                    + "\"ph\": \"X\", \"ts\": %.3f, \"dur\": %.3f, \"pid\": %d, \"tid\": %d, "
+                    + "\"args\": {\"bytes\": %d}}", quote(s.name), (s.start - START) / 1e3,
+                    (s.end - s.start) / 1e3, pid, s.thread, s.bytes));
+            sb.append(i + 1 < EVENTS.size() ? ",\n" : "\n");
+        }
+        sb.append("], \"displayTimeUnit\": \"ms\", \"otherData\": {");
+
+        String sep = "";
+        for (String name : Metrics.names()) {
+            sb.append(sep).append(quote(name)).append(": ").append(Metrics.get(name));
+            sep = ", ";
+        }
+        return sb.append("}}\n").toString();
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < ' ') {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
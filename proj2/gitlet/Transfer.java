@@ -0,0 +1,194 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import static gitlet.Utils.*;
+
+/**
+ * Works out which objects another repository lacks for a commit and sends
+ * them, like the have/want negotiation of git.
+ *
+ * The sending side walks its history back from the wanted commit and stops at
+ * the commits the receiver has. For every missing commit it diffs its tree
+ * with the tree of its parent, skipping equal subtrees, so only the trees and
+ * blobs which the commit introduced are looked at. Each of them is asked for
+ * once, and the ones the receiver already has are left out.
+ *
+ * Objects are named by their path inside .gitlet. They are listed so that
+ * everything an object refers to comes before it: chunks before manifests,
+ * blobs and subtrees before trees, trees and parents before commits. A
+ * transfer which is cut off therefore never leaves a commit with missing
+ * objects behind.
+ *
+ * @author Kheyanshu Garg
+ */
+public class Transfer {
+    private final File src;
+    private final Packs srcPacks;
+    private final BlobStore srcBlobs;
+    /** True for the names of the objects the receiver already has */
+    private final Predicate<String> destHas;
+
+    private final HashMap<String, Commit> commits = new HashMap<>();
+    private final LinkedHashSet<String> wanted = new LinkedHashSet<>();
+
+    /**
+     * Prepares to send objects of the repository SRCGITLETDIR to a receiver
+     * which has the objects accepted by DESTHAS
+     */
+    public Transfer(File srcGitletDir, Predicate<String> destHas) {
+        src = srcGitletDir;
+        srcPacks = Packs.of(srcGitletDir);
+        srcBlobs = new BlobStore(join(srcGitletDir, "objects"));
+        this.destHas = destHas;
+    }
+
+    /** Returns the contents of the object NAME */
+    public byte[] read(String name) {
+        return srcPacks.read(join(src, name));
+    }
+
+    private String name(File f) {
+        return src.toPath().relativize(f.toPath()).toString().replace(File.separatorChar, '/');
+    }
+
+    private Commit commit(String id) {
+        return commits.computeIfAbsent(id, k ->
+                BinaryFormat.readCommit(read("commits/" + k)));
+    }
+
+    private HashMap<String, String> tree(String id) {
+        return id == null ? new HashMap<>()
+                : BinaryFormat.decodeTree(srcPacks.read(Tree.fileIn(src, id)));
+    }
+
+    /** Adds the object NAME unless it was added before or the receiver has it */
+    private void want(String name) {
+        if (!destHas.test(name)) {
+            wanted.add(name);
+        }
+    }
+
+    /**
+     * Returns the names of the objects the receiver needs to have the commit
+     * WANT, in an order in which each object comes after those it refers to
+     */
+    public List<String> missing(String want) {
+        for (String id : missingCommits(want)) {
+            Commit c = commit(id);
+
+            if (c.treeId() == null) {
+                for (String sha : c.getFilesInCommit().values()) {
+                    addBlob(sha);
+                }
+            } else {
+                String parentTree = null;
+                if (c.getParent() != null) {
+                    parentTree = commit(c.getParent()).treeId();
+                }
+                addTree(c.treeId(), parentTree);
+            }
+            want("commits/" + id);
+        }
+        return new ArrayList<>(wanted);
+    }
+
+    /** Returns the commits the receiver lacks, each after its parents */
+    private List<String> missingCommits(String want) {
+        List<String> result = new ArrayList<>();
+        HashSet<String> done = new HashSet<>();
+        ArrayDeque<String> stack = new ArrayDeque<>();
+        stack.push(want);
+
+        while (!stack.isEmpty()) {
+            String top = stack.peek();
+            if (done.contains(top) || destHas.test("commits/" + top)) {
+                stack.pop();
+                continue;
+            }
+
+            Commit c = commit(top);
+            boolean ready = true;
+            for (String p : new String[] {c.getParent(), c.getSecondParent()}) {
+                if (p != null && !done.contains(p) && !destHas.test("commits/" + p)) {
+                    stack.push(p);
+                    ready = false;
+                }
+            }
+
+            if (ready) {
+                stack.pop();
+                done.add(top);
+                result.add(top);
+            }
+        }
+        return result;
+    }
+
+    /** Adds the tree ID and whatever in it is not in the tree BASE */
+    private void addTree(String id, String base) {
+        String treeName = name(Tree.fileIn(src, id));
+        if (id.equals(base) || wanted.contains(treeName) || destHas.test(treeName)) {
+            return;
+        }
+
+        HashMap<String, String> before = tree(base);
+        for (Map.Entry<String, String> i : tree(id).entrySet()) {
+            String old = before.get(i.getKey());
+            if (i.getValue().equals(old)) {
+                continue;
+            }
+
+            if (Tree.isTree(i.getKey())) {
+                addTree(i.getValue(), old);
+            } else {
+                addBlob(i.getValue());
+            }
+        }
+        want(treeName);
+    }
+
+    private void addBlob(String sha) {
+        List<File> files = srcBlobs.filesOf(sha);
+        String last = name(files.get(files.size() - 1));
+        if (wanted.contains(last) || destHas.test(last)) {
+            return;
+        }
+
+        for (File f : files) {
+            want(name(f));
+        }
+    }
+
+    /**
+     * Copies the commit WANT of the repository SRCDIR, with everything it needs,
+     * into the repository DESTDIR, counting the objects and bytes copied in
+     * Metrics
+     */
+    public static void copy(File srcDir, File destDir, String want) {
+        Packs destPacks = Packs.of(destDir);
+        Transfer t = new Transfer(srcDir, name -> destPacks.exists(join(destDir, name)));
+
+        long bytes = 0;
+        List<String> names = t.missing(want);
+        for (String name : names) {
+            byte[] contents = t.read(name);
+            File f = join(destDir, name);
+            f.getParentFile().mkdirs();
+            writeAtomic(f, contents);
+            bytes += contents.length;
+        }
+
+        destPacks.refresh();
+        Metrics.add("transfer.objects", names.size());
+        Metrics.add("transfer.bytes", bytes);
+    }
+}
@@ -0,0 +1,235 @@
+package gitlet;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/**
+ * Tree objects, which record the contents of one directory of a commit.
+ *
+ * A tree maps the names in its directory to the sha of a blob, or, for names
+ * ending in "/", to the id of the tree of that subdirectory. The id of a tree
+ * is the sha of its encoding, so a directory which did not change between two
+ * commits is the same tree object in both. A commit only writes the trees on
+ * the paths to the files it changed and shares every other subtree with its
+ * parent.
+ *
+ * Trees are saved in objects/trees/<first 2 characters of id>/<id>.
+ *
+ * @author Kheyanshu Garg
+ */
+public class Tree {
+    /** Folder in which trees are stored */
+    public static final File TREES_DIR = join(Repository.OBJECTS_DIR, "trees");
+
+    /** Trees read so far in this command */
+    private static final HashMap<String, HashMap<String, String>> READ = new HashMap<>();
+
+    private static File treeFile(String id) {
+        return fileIn(Repository.GITLET_DIR, id);
+    }
+
+    /** Returns the file of the tree ID in the repository GITLETDIR */
+    static File fileIn(File gitletDir, String id) {
+        return join(gitletDir, "objects", "trees", id.substring(0, 2), id);
+    }
+
+    /** True if NAME is the name of a subdirectory in a tree */
+    public static boolean isTree(String name) {
+        return name.endsWith("/");
+    }
+
+    /** Returns the entries of the tree ID, which must not be modified */
+    public static HashMap<String, String> read(String id) {
+        HashMap<String, String> entries = READ.get(id);
+        if (entries == null) {
+            try {
+                entries = BinaryFormat.decodeTree(Packs.local().read(treeFile(id)));
+            } catch (IllegalArgumentException excp) {
+                throw error("Missing tree %s", id);
+            }
+            READ.put(id, entries);
+        }
+        return entries;
+    }
+
+    /** Saves a tree with ENTRIES unless it already exists and returns its id */
+    public static String write(Map<String, String> entries) {
+        byte[] bytes = BinaryFormat.encodeTree(entries);
+        String id = sha1(bytes);
+
+        File f = treeFile(id);
+        if (!Packs.local().exists(f)) {
+            // Read-only commands such as diff get here for commits older than trees
+            RepoLock.local().lock();
+            f.getParentFile().mkdirs();
+            writeAtomic(f, bytes);
+        }
+        READ.put(id, new HashMap<>(entries));
+        return id;
+    }
+
+    /** Returns the sha of the file at PATH in the tree ID or null */
+    public static String lookup(String id, String path) {
+        int slash = path.indexOf('/');
+        while (slash >= 0 && id != null) {
+            id = read(id).get(path.substring(0, slash + 1));
+            path = path.substring(slash + 1);
+            slash = path.indexOf('/');
+        }
+        return id == null ? null : read(id).get(path);
+    }
+
+    /**
+     * Returns the sha of the file at PATH in the tree ID, or the id of the tree
+     * of the directory at PATH, or null if there is neither
+     */
+    public static String entry(String id, String path) {
+        int slash = path.indexOf('/');
+        while (slash >= 0 && id != null) {
+            id = read(id).get(path.substring(0, slash + 1));
+            path = path.substring(slash + 1);
+            slash = path.indexOf('/');
+        }
+        if (id == null) {
+            return null;
+        }
+
+        HashMap<String, String> entries = read(id);
+        String sha = entries.get(path);
+        return sha != null ? sha : entries.get(path + "/");
+    }
+
+    /** Returns the path and sha of every file in the tree ID */
+    public static HashMap<String, String> flatten(String id) {
+        HashMap<String, String> files = new HashMap<>();
+        flatten(id, "", files);
+        return files;
+    }
+
+    private static void flatten(String id, String prefix, HashMap<String, String> files) {
+        for (Map.Entry<String, String> i : read(id).entrySet()) {
+            if (isTree(i.getKey())) {
+                flatten(i.getValue(), prefix + i.getKey(), files);
+            } else {
+                files.put(prefix + i.getKey(), i.getValue());
+            }
+        }
+    }
+
+    /**
+     * Applies CHANGES, which map paths to their new sha or to null for removed
+     * files, to the tree BASE and returns the id of the new tree. BASE may be
+     * null for an empty tree. Only the trees of the changed directories are read
+     * and written.
+     */
+    public static String update(String base, Map<String, String> changes) {
+        String id = updateDir(base, changes);
+        return id == null ? write(new HashMap<>()) : id;
+    }
+
+    /** Same as update but returns null instead of an empty tree */
+    private static String updateDir(String base, Map<String, String> changes) {
+        if (changes.isEmpty()) {
+            return base;
+        }
+
+        HashMap<String, String> entries = base == null ? new HashMap<>()
+                : new HashMap<>(read(base));
+        HashMap<String, HashMap<String, String>> subDirs = new HashMap<>();
+
+        for (Map.Entry<String, String> i : changes.entrySet()) {
+            String path = i.getKey();
+            int slash = path.indexOf('/');
+
+            if (slash >= 0) {
+                subDirs.computeIfAbsent(path.substring(0, slash + 1), k -> new HashMap<>())
+                        .put(path.substring(slash + 1), i.getValue());
+            } else if (i.getValue() == null) {
+                entries.remove(path);
+            } else {
+                entries.put(path, i.getValue());
+            }
+        }
+
+        for (Map.Entry<String, HashMap<String, String>> i : subDirs.entrySet()) {
+            String subTree = updateDir(entries.get(i.getKey()), i.getValue());
+            if (subTree == null) {
+                entries.remove(i.getKey());
+            } else {
+                entries.put(i.getKey(), subTree);
+            }
+        }
+
+        return entries.isEmpty() ? null : write(entries);
+    }
+
+    /**
+     * Returns the changes which turn the tree FROM into the tree TO, in the form
+     * taken by update. Subtrees with the same id are skipped without being read,
+     * so the cost depends on the number of changes and not on the size of the
+     * trees. Either tree may be null for an empty tree.
+     */
+    public static HashMap<String, String> diff(String from, String to) {
+        HashMap<String, String> changes = new HashMap<>();
+        diff(from, to, "", changes);
+        return changes;
+    }
+
+    private static void diff(String from, String to, String prefix,
+                             HashMap<String, String> changes) {
+        if (from != null && from.equals(to)) {
+            return;
+        }
+
+        Map<String, String> before = from == null ? new HashMap<>() : read(from);
+        Map<String, String> after = to == null ? new HashMap<>() : read(to);
+
+        for (Map.Entry<String, String> i : after.entrySet()) {
+            String old = before.get(i.getKey());
+            if (i.getValue().equals(old)) {
+                continue;
+            }
+
+            if (isTree(i.getKey())) {
+                diff(old, i.getValue(), prefix + i.getKey(), changes);
+            } else {
+                changes.put(prefix + i.getKey(), i.getValue());
+            }
+        }
+
+        for (Map.Entry<String, String> i : before.entrySet()) {
+            if (after.containsKey(i.getKey())) {
+                continue;
+            }
+
+            if (isTree(i.getKey())) {
+                diff(i.getValue(), null, prefix + i.getKey(), changes);
+            } else {
+                changes.put(prefix + i.getKey(), null);
+            }
+        }
+    }
+
+    /**
+     * Returns the changes which turn the files BEFORE into the files AFTER, in
+     * the form taken by update
+     */
+    public static HashMap<String, String> changes(Map<String, String> before,
+                                                  Map<String, String> after) {
+        HashMap<String, String> changes = new HashMap<>();
+        for (Map.Entry<String, String> i : after.entrySet()) {
+            if (!i.getValue().equals(before.get(i.getKey()))) {
+                changes.put(i.getKey(), i.getValue());
+            }
+        }
+        for (String i : before.keySet()) {
+            if (!after.containsKey(i)) {
+                changes.put(i, null);
+            }
+        }
+        return changes;
+    }
+}
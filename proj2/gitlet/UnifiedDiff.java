@@ -0,0 +1,278 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Prints the changes between two versions of a file in the unified format of
+ * diff -u, with three lines of context around each change.
+ *
+ * The files stay in the buffers they were read or mapped into. Lines are only
+ * found by their offsets and numbered by comparing their bytes, and each hunk
+ * is written out as soon as it is complete, copying the lines straight from
+ * the buffers.
+ *
+ * @author Kheyanshu Garg
+ */
+public class UnifiedDiff {
+    static final int CONTEXT = 3;
+    /** Files with a NUL byte this early on are treated as binary */
+    private static final int BINARY_CHECK = 8000;
+
+    private final OutputStream out;
+    /** Lines of the hunk being built, written out once its header is known */
+    private final ByteArrayOutputStream hunk = new ByteArrayOutputStream();
+
+    public UnifiedDiff(OutputStream out) {
+        this.out = out;
+    }
+
+    /** The lines of a buffer, found by their offsets */
+    private static class Lines {
+        final ByteBuffer buf;
+        /** Offset of every line, and the end of the buffer after the last one */
+        final int[] starts;
+
+        Lines(ByteBuffer buf) {
+            this.buf = buf;
+            int n = 0;
+            int[] s = new int[16];
+            for (int i = buf.position(); i < buf.limit(); ++i) {
+                if (i == buf.position() || buf.get(i - 1) == '\n') {
+                    if (n + 1 >= s.length) {
+                        s = Arrays.copyOf(s, s.length * 2);
+                    }
+                    s[n++] = i;
+                }
+            }
+            s[n] = buf.limit();
+            starts = Arrays.copyOf(s, n + 1);
+        }
+
+        int size() {
+            return starts.length - 1;
+        }
+
+        int length(int i) {
+            return starts[i + 1] - starts[i];
+        }
+    }
+
+    private static int hash(Lines lines, int k) {
+        int h = 1;
+        for (int i = lines.starts[k]; i < lines.starts[k + 1]; ++i) {
+            h = 31 * h + lines.buf.get(i);
+        }
+        return h;
+    }
+
+    private static boolean sameLine(Lines x, int i, Lines y, int j) {
+        int length = x.length(i);
+        if (length != y.length(j)) {
+            return false;
+        }
+        int p = x.starts[i], q = y.starts[j];
+        for (int k = 0; k < length; ++k) {
+            if (x.buf.get(p + k) != y.buf.get(q + k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Numbers the lines a[aLo, aHi) and b[bLo, bHi), giving equal lines the
+     * same number, with an open addressing table of the lines seen so far
+     */
+    private static int[][] intern(Lines a, int aLo, int aHi, Lines b, int bLo, int bHi) {
+        int capacity = Integer.highestOneBit(Math.max(4, 2 * (aHi - aLo + bHi - bLo)) - 1) << 1;
+        Lines[] slotLines = new Lines[capacity];
+        int[] slotLine = new int[capacity];
+        int[] slotHash = new int[capacity];
+        int[] slotId = new int[capacity];
+        int ids = 0;
+
+        int[][] result = {new int[aHi - aLo], new int[bHi - bLo]};
+        Lines[] sides = {a, b};
+        int[] from = {aLo, bLo};
+        for (int side = 0; side < 2; ++side) {
+            Lines lines = sides[side];
+            for (int k = 0; k < result[side].length; ++k) {
+                int line = from[side] + k;
+                int h = hash(lines, line);
+                int slot = (h ^ (h >>> 16)) & (capacity - 1);
+                while (slotLines[slot] != null && (slotHash[slot] != h
+                        || !sameLine(slotLines[slot], slotLine[slot], lines, line))) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                if (slotLines[slot] == null) {
+                    slotLines[slot] = lines;
+                    slotLine[slot] = line;
+                    slotHash[slot] = h;
+                    slotId[slot] = ids++;
+                }
+                result[side][k] = slotId[slot];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns, for every line of A, the line of B it is kept as or -1. The
+     * common first and last lines are matched by comparing their bytes and
+     * only the lines between them are numbered and diffed.
+     */
+    private static int[] match(Lines a, Lines b) {
+        int n = a.size(), m = b.size();
+        int prefix = 0;
+        while (prefix < n && prefix < m && sameLine(a, prefix, b, prefix)) {
+            ++prefix;
+        }
+        int suffix = 0;
+        while (suffix < n - prefix && suffix < m - prefix
+                && sameLine(a, n - 1 - suffix, b, m - 1 - suffix)) {
+            ++suffix;
+        }
+
+        int[][] ids = intern(a, prefix, n - suffix, b, prefix, m - suffix);
+        int[] middle = Diff.match(ids[0], ids[1]);
+
+        int[] match = new int[n];
+        for (int i = 0; i < prefix; ++i) {
+            match[i] = i;
+        }
+        for (int i = 0; i < middle.length; ++i) {
+            match[prefix + i] = middle[i] < 0 ? -1 : prefix + middle[i];
+        }
+        for (int i = 1; i <= suffix; ++i) {
+            match[n - i] = m - i;
+        }
+        return match;
+    }
+
+    private static boolean isBinary(ByteBuffer buf) {
+        int end = Math.min(buf.limit(), buf.position() + BINARY_CHECK);
+        for (int i = buf.position(); i < end; ++i) {
+            if (buf.get(i) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void print(String s) throws IOException {
+        out.write(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Prints the changes to the file PATH from BEFORE to AFTER, either of
+     * which is null for a file which does not exist on that side
+     */
+    public void file(String path, ByteBuffer before, ByteBuffer after) throws IOException {
+        print("diff --gitlet a/" + path + " b/" + path + "\n");
+        if (before == null) {
+            print("new file\n");
+        } else if (after == null) {
+            print("deleted file\n");
+        }
+
+        ByteBuffer empty = ByteBuffer.allocate(0);
+        before = before == null ? empty : before;
+        after = after == null ? empty : after;
+        if (isBinary(before) || isBinary(after)) {
+            print("Binary files a/" + path + " and b/" + path + " differ\n");
+            return;
+        }
+
+        print((before == empty ? "--- /dev/null" : "--- a/" + path) + "\n");
+        print((after == empty ? "+++ /dev/null" : "+++ b/" + path) + "\n");
+
+        Lines a = new Lines(before);
+        Lines b = new Lines(after);
+        hunks(a, b, match(a, b));
+    }
+
+    /** Writes the hunks for the lines of A matched with lines of B by MATCH */
+    private void hunks(Lines a, Lines b, int[] match) throws IOException {
+        int[] change = nextChange(match, 0, 0, a.size(), b.size());
+
+        while (change != null) {
+            int startA = Math.max(0, change[0] - CONTEXT);
+            int startB = change[1] - (change[0] - startA);
+            int posA = startA, posB = startB;
+            int[] next;
+
+            // Changes closer than twice the context go into the same hunk
+            do {
+                context(a, posA, change[0]);
+                for (int k = change[0]; k < change[2]; ++k) {
+                    line('-', a, k);
+                }
+                for (int k = change[1]; k < change[3]; ++k) {
+                    line('+', b, k);
+                }
+                posA = change[2];
+                posB = change[3];
+                next = nextChange(match, posA, posB, a.size(), b.size());
+                change = next;
+            } while (next != null && next[0] - posA <= 2 * CONTEXT);
+
+            int endA = Math.min(a.size(), posA + CONTEXT);
+            context(a, posA, endA);
+            print("@@ -" + range(startA, endA) + " +"
+                    + range(startB, posB + endA - posA) + " @@\n");
+            hunk.writeTo(out);
+            hunk.reset();
+        }
+    }
+
+    /**
+     * Returns the next change at or after a[i] and b[j] as {start in a, start
+     * in b, end in a, end in b}, or null if the rest of the files are equal
+     */
+    private static int[] nextChange(int[] match, int i, int j, int n, int m) {
+        while (i < n && match[i] == j) {
+            ++i;
+            ++j;
+        }
+        if (i == n && j == m) {
+            return null;
+        }
+
+        int end = i;
+        while (end < n && match[end] < 0) {
+            ++end;
+        }
+        return new int[] {i, j, end, end < n ? match[end] : m};
+    }
+
+    private void context(Lines a, int from, int to) {
+        for (int k = from; k < to; ++k) {
+            line(' ', a, k);
+        }
+    }
+
+    private void line(char kind, Lines lines, int k) {
+        hunk.write(kind);
+        int start = lines.starts[k], end = lines.starts[k + 1];
+        for (int p = start; p < end; ++p) {
+            hunk.write(lines.buf.get(p));
+        }
+        if (lines.buf.get(end - 1) != '\n') {
+            hunk.write('\n');
+            hunk.writeBytes("\\ No newline at end of file\n".getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String range(int start, int end) {
+        int count = end - start;
+        if (count == 1) {
+            return String.valueOf(start + 1);
+        }
+        return (count == 0 ? start : start + 1) + "," + count;
+    }
+}
@@ -9,8 +9,12 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -36,38 +40,73 @@ class Utils {
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
+        return hash("SHA-1", vals);
+    }
+
+    /** Returns the SHA-1 hash of the concatenation of the strings in
+     *  VALS. */
+    static String sha1(List<Object> vals) {
+        return sha1(vals.toArray(new Object[vals.size()]));
+    }
+
+    /** Returns the hash with ALGORITHM, a name known to MessageDigest, of
+     *  the concatenation of VALS, which may be any mixture of byte arrays
+     *  and Strings. */
+    static String hash(String algorithm, Object... vals) {
+        try (Trace.Span s = Trace.begin("hash")) {
+            MessageDigest md = digest(algorithm);
             for (Object val : vals) {
                 if (val instanceof byte[]) {
                     md.update((byte[]) val);
+                    s.bytes(((byte[]) val).length);
                 } else if (val instanceof String) {
                     md.update(((String) val).getBytes(StandardCharsets.UTF_8));
                 } else {
-                    throw new IllegalArgumentException("improper type to sha1");
+                    throw new IllegalArgumentException("improper type to hash");
                 }
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
+            return hex(md.digest());
+        }
+    }
+
+    /**
+     * Returns the same as hash(ALGORITHM, readContents(FILE), NAME), but
+     * streams the file through the digest instead of reading it into memory
+     */
+    static String hashFile(String algorithm, File file, String name) {
+        try (Trace.Span s = Trace.begin("hash file");
+             FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MessageDigest md = digest(algorithm);
+            ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+            while (in.read(buf) >= 0) {
+                buf.flip();
+                s.bytes(buf.remaining());
+                md.update(buf);
+                buf.clear();
             }
-            return result.toString();
-        } catch (NoSuchAlgorithmException excp) {
-            throw new IllegalArgumentException("System does not support SHA-1");
+            md.update(name.getBytes(StandardCharsets.UTF_8));
+            return hex(md.digest());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
     }
 
-    /** Returns the SHA-1 hash of the concatenation of the strings in
-     *  VALS. */
-    static String sha1(List<Object> vals) {
-        return sha1(vals.toArray(new Object[vals.size()]));
+    /** Returns a new MessageDigest for ALGORITHM */
+    static MessageDigest digest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support " + algorithm);
+        }
     }
 
-    /**
-     * Returns the first 10 digits of a sha 1 hash
-     */
-    static String sha1Object(Object ...vals) {
-        return sha1(vals).substring(0, 10);
+    /** Returns BYTES as a lower case hexadecimal numeral */
+    static String hex(byte[] bytes) {
+        Formatter result = new Formatter();
+        for (byte b : bytes) {
+            result.format("%02x", b);
+        }
+        return result.toString();
     }
 
     /* FILE DELETION */
@@ -104,8 +143,10 @@ class Utils {
         if (!file.isFile()) {
             throw new IllegalArgumentException("must be a normal file");
         }
-        try {
-            return Files.readAllBytes(file.toPath());
+        try (Trace.Span s = Trace.begin("read")) {
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            s.bytes(bytes.length);
+            return bytes;
         } catch (IOException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
@@ -123,7 +164,7 @@ class Utils {
      *  either a String or a byte array.  Throws IllegalArgumentException
      *  in case of problems. */
     static void writeContents(File file, Object... contents) {
-        try {
+        try (Trace.Span s = Trace.begin("write")) {
             if (file.isDirectory()) {
                 throw
                     new IllegalArgumentException("cannot overwrite directory");
@@ -131,11 +172,10 @@ class Utils {
             BufferedOutputStream str =
                 new BufferedOutputStream(Files.newOutputStream(file.toPath()));
             for (Object obj : contents) {
-                if (obj instanceof byte[]) {
-                    str.write((byte[]) obj);
-                } else {
-                    str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
-                }
+                byte[] bytes = obj instanceof byte[] ? (byte[]) obj
+                        : ((String) obj).getBytes(StandardCharsets.UTF_8);
+                str.write(bytes);
+                s.bytes(bytes.length);
             }
             str.close();
         } catch (IOException | ClassCastException excp) {
@@ -143,11 +183,62 @@ class Utils {
         }
     }
 
+    /** Write BYTES to FILE by writing a temporary file next to it and renaming
+     *  it over FILE, so that readers never see a partly written FILE.  The
+     *  temporary file starts with a dot so listings of the directory can skip
+     *  it.  Throws IllegalArgumentException in case of problems. */
+    static void writeAtomic(File file, byte[] bytes) {
+        writeAtomic(file, bytes, false);
+    }
+
+    /** Like writeAtomic, but forces the new contents to the disk before the
+     *  rename, so that FILE survives a crash with either its old contents or
+     *  BYTES, never an empty file. */
+    static void writeDurable(File file, byte[] bytes) {
+        writeAtomic(file, bytes, true);
+    }
+
+    private static void writeAtomic(File file, byte[] bytes, boolean sync) {
+        File tmp = null;
+        try (Trace.Span s = Trace.begin(sync ? "write durable" : "write atomic")) {
+            s.bytes(bytes.length);
+            tmp = Files.createTempFile(file.getAbsoluteFile().getParentFile().toPath(),
+                    "." + file.getName(), ".tmp").toFile();
+            if (sync) {
+                try (FileChannel ch = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+                    ch.write(ByteBuffer.wrap(bytes));
+                    ch.force(true);
+                }
+            } else {
+                Files.write(tmp.toPath(), bytes);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            if (tmp != null) {
+                tmp.delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Forces the entries of the directory DIR, such as files just renamed
+     *  into it, to the disk.  Only some systems can, so failures are
+     *  ignored. */
+    static void syncDirectory(File dir) {
+        try (FileChannel ch = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException excp) {
+            // Directories cannot be opened for syncing on every platform
+        }
+    }
+
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
-        try {
+        try (Trace.Span s = Trace.begin("readObject")) {
+            s.bytes(file.length());
             ObjectInputStream in =
                 new ObjectInputStream(new FileInputStream(file));
             T result = expectedClass.cast(in.readObject());
@@ -160,8 +251,11 @@ class Utils {
     }
 
     /** Write OBJ to FILE. */
+    @SuppressWarnings("try")
     static void writeObject(File file, Serializable obj) {
-        writeContents(file, serialize(obj));
+        try (Trace.Span s = Trace.begin("writeObject")) {
+            writeContents(file, serialize(obj));
+        }
     }
 
     /* DIRECTORIES */
@@ -178,8 +272,12 @@ class Utils {
     /** Returns a list of the names of all plain files in the directory DIR, in
      *  lexicographic order as Java Strings.  Returns null if DIR does
      *  not denote a directory. */
+    @SuppressWarnings("try")
     static List<String> plainFilenamesIn(File dir) {
-        String[] files = dir.list(PLAIN_FILES);
+        String[] files;
+        try (Trace.Span s = Trace.begin("list")) {
+            files = dir.list(PLAIN_FILES);
+        }
         if (files == null) {
             return null;
         } else {